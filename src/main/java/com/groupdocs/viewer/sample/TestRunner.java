@@ -46,7 +46,8 @@ public class TestRunner {
                 ParameterlessConstructorsTests.class,
                 AdvancedOperationsTests.class,
                 CommonIssuesTests.class,
-                ExtraOperationsTests.class
+                ExtraOperationsTests.class,
+                CacheHandlersTests.class
         };
 
         Result result;
@@ -1,23 +1,80 @@
 package com.groupdocs.viewer.sample.handler;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.*;
-import com.groupdocs.viewer.internal.c.a.ms.System.Collections.ArrayList;
 import com.groupdocs.viewer.storage.FileInfo;
 import com.groupdocs.viewer.storage.IFileInfo;
 import com.groupdocs.viewer.storage.IFileStorage;
 import org.apache.commons.io.IOUtils;
 
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.util.List;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AmazonS3FileStorage implements IFileStorage
 {
+    /**
+     * <p>
+     * Object content is read into memory before it is returned
+     * </p>
+     */
+    public static final int READ_BUFFERED = 0;
+
+    /**
+     * <p>
+     * Object content is streamed from S3 as it is read, the object is released when the stream is closed
+     * </p>
+     */
+    public static final int READ_STREAMING = 1;
+
+    /**
+     * <p>
+     * Object content is downloaded into a temporary file in ranges fetched in parallel, the file is deleted
+     * when the stream is closed
+     * </p>
+     */
+    public static final int READ_TEMP_FILE = 2;
+
+    private static final long DEFAULT_DOWNLOAD_PART_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_TRANSFER_THREADS = 4;
+    private static final long MIN_UPLOAD_PART_SIZE = 5 * 1024 * 1024;
+    private static final long DEFAULT_UPLOAD_PART_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_UPLOAD_PARTS_IN_FLIGHT = 4;
+    private static final int MAX_UPLOAD_PARTS = 10000;
+    private static final long DEFAULT_METADATA_TTL = 5 * 1000L;
+    private static final long DEFAULT_MISSING_METADATA_TTL = 1000L;
+    private static final int DEFAULT_MAX_METADATA_ENTRIES = 100000;
+    private static final int NOT_FOUND_STATUS = 404;
+    private static final long LISTING_TIMEOUT = 60 * 1000L;
+    private static final int MAX_DELETE_BATCH_SIZE = 1000;
+    private static final int DEFAULT_DELETE_CONCURRENCY = 4;
+    private static final int DEFAULT_DELETE_RATE_LIMIT = 3000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_FILE_PREFIX = "s3-object-";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
     private AmazonS3Client _client;
     private String _bucketName;
+    private volatile int _readMode = READ_BUFFERED;
+    private volatile long _downloadPartSize = DEFAULT_DOWNLOAD_PART_SIZE;
+    private volatile long _uploadPartSize = DEFAULT_UPLOAD_PART_SIZE;
+    private volatile int _uploadPartsInFlight = DEFAULT_UPLOAD_PARTS_IN_FLIGHT;
+    private volatile int _deleteConcurrency = DEFAULT_DELETE_CONCURRENCY;
+    private volatile int _deleteRateLimit = DEFAULT_DELETE_RATE_LIMIT;
+    private volatile S3MetadataCache _metadataCache = new S3MetadataCache(DEFAULT_METADATA_TTL, DEFAULT_MISSING_METADATA_TTL, DEFAULT_MAX_METADATA_ENTRIES);
+    private volatile ThreadPoolExecutor _transferExecutor = createTransferExecutor(DEFAULT_TRANSFER_THREADS);
+
+    /**
+     * <p>
+     * Runs directory listings of parallel iterations, they wait for their consumer, so they do not share
+     * the bounded transfer threads
+     * </p>
+     */
+    private final ThreadPoolExecutor _listingExecutor = createListingExecutor();
 
     private char getPathDelimiter()
     {
@@ -30,24 +87,165 @@ public class AmazonS3FileStorage implements IFileStorage
         _bucketName = bucketName;
     }
 
+    /**
+     * <p>
+     * Sets the cache of object metadata used by {@link #fileExists(String)} and {@link #getFileInfo(String)}.
+     * </p>
+     *
+     * @param metadataCache The metadata cache, null to always request metadata from S3.
+     */
+    public void setMetadataCache(S3MetadataCache metadataCache)
+    {
+        _metadataCache = metadataCache;
+    }
+
+    public S3MetadataCache getMetadataCache()
+    {
+        return _metadataCache;
+    }
+
     public boolean fileExists(String path)
     {
+        String key = getKey(path);
+        final S3MetadataCache metadataCache = _metadataCache;
+        final S3MetadataCache.Entry cached = metadataCache != null ? metadataCache.get(key) : null;
+        if (cached != null)
+        {
+            return cached.exists();
+        }
+
         try
         {
-            String key = getKey(path);
-            GetObjectMetadataRequest request = new GetObjectMetadataRequest(_bucketName, key);
-            _client.getObjectMetadata(request);
+            getObjectMetadata(key);
             return true;
         }
         catch (AmazonS3Exception e)
         {
+            if (metadataCache != null && e.getStatusCode() == NOT_FOUND_STATUS)
+            {
+                metadataCache.putMissing(key);
+            }
             return false;
         }
     }
 
+    /**
+     * <p>
+     * Sets how object content is returned by {@link #getFile(String)}.
+     * </p>
+     *
+     * @param readMode {@link #READ_BUFFERED}, {@link #READ_STREAMING} or {@link #READ_TEMP_FILE}.
+     */
+    public void setReadMode(int readMode)
+    {
+        if (readMode != READ_BUFFERED && readMode != READ_STREAMING && readMode != READ_TEMP_FILE)
+            throw new IllegalArgumentException("readMode");
+        _readMode = readMode;
+    }
+
+    public int getReadMode()
+    {
+        return _readMode;
+    }
+
+    /**
+     * <p>
+     * Sets size of ranges downloaded in parallel in {@link #READ_TEMP_FILE} mode.
+     * </p>
+     *
+     * @param downloadPartSize The part size in bytes.
+     */
+    public void setDownloadPartSize(long downloadPartSize)
+    {
+        if (downloadPartSize <= 0)
+            throw new IllegalArgumentException("downloadPartSize");
+        _downloadPartSize = downloadPartSize;
+    }
+
+    /**
+     * <p>
+     * Sets size of parts of multipart uploads, content up to this size is uploaded with a single request.
+     * </p>
+     *
+     * @param uploadPartSize The part size in bytes, at least 5 MB.
+     */
+    public void setUploadPartSize(long uploadPartSize)
+    {
+        if (uploadPartSize < MIN_UPLOAD_PART_SIZE || uploadPartSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("uploadPartSize");
+        _uploadPartSize = uploadPartSize;
+    }
+
+    /**
+     * <p>
+     * Sets maximum number of parts of one upload held in memory, read ahead and being uploaded.
+     * </p>
+     *
+     * @param uploadPartsInFlight The number of parts.
+     */
+    public void setUploadPartsInFlight(int uploadPartsInFlight)
+    {
+        if (uploadPartsInFlight <= 0)
+            throw new IllegalArgumentException("uploadPartsInFlight");
+        _uploadPartsInFlight = uploadPartsInFlight;
+    }
+
+    /**
+     * <p>
+     * Sets maximum number of batch delete requests of one directory running at once.
+     * </p>
+     *
+     * @param deleteConcurrency The number of requests.
+     */
+    public void setDeleteConcurrency(int deleteConcurrency)
+    {
+        if (deleteConcurrency <= 0)
+            throw new IllegalArgumentException("deleteConcurrency");
+        _deleteConcurrency = deleteConcurrency;
+    }
+
+    /**
+     * <p>
+     * Sets maximum number of objects deleted per second by one directory delete, S3 limits
+     * write requests per prefix and counts every deleted object as a request.
+     * </p>
+     *
+     * @param deleteRateLimit The number of objects per second.
+     */
+    public void setDeleteRateLimit(int deleteRateLimit)
+    {
+        if (deleteRateLimit <= 0)
+            throw new IllegalArgumentException("deleteRateLimit");
+        _deleteRateLimit = deleteRateLimit;
+    }
+
+    /**
+     * <p>
+     * Sets number of threads transferring parts of one or more objects in parallel.
+     * </p>
+     *
+     * @param transferThreads The number of threads.
+     */
+    public void setTransferThreads(int transferThreads)
+    {
+        if (transferThreads <= 0)
+            throw new IllegalArgumentException("transferThreads");
+        final ThreadPoolExecutor previous = _transferExecutor;
+        _transferExecutor = createTransferExecutor(transferThreads);
+        previous.shutdown();
+    }
+
     public InputStream getFile(String path)
     {
         String key = getKey(path);
+        switch (_readMode)
+        {
+            case READ_STREAMING:
+                return getFileStream(key);
+            case READ_TEMP_FILE:
+                return getFileDownload(key);
+        }
+
         GetObjectRequest request = new GetObjectRequest(_bucketName, key);
         try (S3Object response = _client.getObject(request))
         {
@@ -59,25 +257,544 @@ public class AmazonS3FileStorage implements IFileStorage
         return null;
     }
 
+    /**
+     * <p>
+     * Gets stream reading object content directly from S3.
+     * </p>
+     *
+     * @param key The object key.
+     * @return stream which releases the object when closed
+     */
+    private InputStream getFileStream(String key)
+    {
+        final S3Object response = _client.getObject(new GetObjectRequest(_bucketName, key));
+        final S3ObjectInputStream content = response.getObjectContent();
+        return new FilterInputStream(content)
+        {
+            private boolean _completed;
+            private boolean _closed;
+
+            @Override
+            public int read() throws IOException
+            {
+                final int b = super.read();
+                _completed |= b < 0;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                final int read = super.read(b, off, len);
+                _completed |= read < 0;
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                if (_closed)
+                    return;
+                _closed = true;
+                if (!_completed)
+                {
+                    // Drops the connection instead of reading the rest of the object
+                    content.abort();
+                }
+                response.close();
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Downloads object content into a temporary file, ranges of large objects are fetched in parallel.
+     * </p>
+     *
+     * @param key The object key.
+     * @return stream of the temporary file which deletes the file when closed, or null when download failed
+     */
+    private InputStream getFileDownload(String key)
+    {
+        // Fresh metadata, ranges are pinned to its ETag
+        final ObjectMetadata metadata = getObjectMetadata(key);
+        final long length = metadata.getContentLength();
+        final long partSize = _downloadPartSize;
+
+        final File tempFile;
+        try
+        {
+            tempFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(tempFile, "rw"))
+        {
+            final FileChannel channel = file.getChannel();
+            final List<Future<?>> parts = new ArrayList<Future<?>>();
+            for (long start = 0; start < length; start += partSize)
+            {
+                final long end = Math.min(start + partSize, length) - 1;
+                final GetObjectRequest request = new GetObjectRequest(_bucketName, key);
+                request.setRange(start, end);
+                // All ranges come from the same version of the object
+                if (metadata.getETag() != null)
+                {
+                    request.setMatchingETagConstraints(Collections.singletonList(metadata.getETag()));
+                }
+                final long position = start;
+                parts.add(_transferExecutor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call() throws IOException
+                    {
+                        downloadRange(request, channel, position);
+                        return null;
+                    }
+                }));
+            }
+            try
+            {
+                for (Future<?> part : parts)
+                {
+                    part.get();
+                }
+            } finally {
+                for (Future<?> part : parts)
+                {
+                    part.cancel(true);
+                }
+            }
+        } catch (IOException | ExecutionException | RuntimeException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            tempFile.delete();
+            return null;
+        }
+
+        try
+        {
+            return new FileInputStream(tempFile)
+            {
+                @Override
+                public void close() throws IOException
+                {
+                    super.close();
+                    tempFile.delete();
+                }
+            };
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            tempFile.delete();
+            return null;
+        }
+    }
+
+    private void downloadRange(GetObjectRequest request, FileChannel channel, long position) throws IOException
+    {
+        try (S3Object response = _client.getObject(request))
+        {
+            final InputStream content = response.getObjectContent();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long offset = position;
+            int read;
+            while ((read = content.read(buffer)) >= 0)
+            {
+                final ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                while (data.hasRemaining())
+                {
+                    offset += channel.write(data, offset);
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Saves the content, content bigger than the upload part size is uploaded as multipart upload
+     * with parts uploaded in parallel. Content length is always passed to S3, so the SDK does not buffer
+     * the whole stream.
+     * </p>
+     */
     public void saveFile(String path, InputStream content)
     {
+        saveFile(path, content, getContentLength(content));
+    }
+
+    /**
+     * <p>
+     * Saves the content of known length, content up to the upload part size is uploaded with a single request
+     * without buffering it.
+     * </p>
+     *
+     * @param path    The file path.
+     * @param content The content.
+     * @param length  The content length, -1 if unknown.
+     */
+    public void saveFile(String path, InputStream content, long length)
+    {
+        if (length < -1)
+            throw new IllegalArgumentException("length");
+
         String key = getKey(path);
-        PutObjectRequest request = new PutObjectRequest(_bucketName, key, content, new ObjectMetadata());
-        _client.putObject(request);
+        try
+        {
+            upload(key, content, length);
+        } finally {
+            invalidateMetadata(key);
+        }
+    }
+
+    private void upload(String key, InputStream content, long length)
+    {
+        final long partSize = length > 0 ? Math.max(_uploadPartSize, (length + MAX_UPLOAD_PARTS - 1) / MAX_UPLOAD_PARTS) : _uploadPartSize;
+        if (length >= 0 && length <= partSize)
+        {
+            putObject(key, content, length);
+            return;
+        }
+
+        final byte[] firstPart = new byte[(int) partSize];
+        final int read;
+        try
+        {
+            read = readPart(content, firstPart);
+        } catch (IOException e) {
+            throw new AmazonClientException("Can't read content of " + key, e);
+        }
+        if (read < firstPart.length)
+        {
+            putObject(key, new ByteArrayInputStream(firstPart, 0, read), read);
+            return;
+        }
+        uploadMultipart(key, content, firstPart);
+    }
+
+    private void putObject(String key, InputStream content, long length)
+    {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(length);
+        _client.putObject(new PutObjectRequest(_bucketName, key, content, metadata));
+    }
+
+    /**
+     * <p>
+     * Uploads the content in parts, parts are read while previous parts are uploaded. The upload is aborted
+     * when any part fails, so no incomplete parts are left in the bucket.
+     * </p>
+     *
+     * @param key       The object key.
+     * @param content   The rest of the content.
+     * @param firstPart The first part, already read from the content.
+     */
+    private void uploadMultipart(final String key, InputStream content, byte[] firstPart)
+    {
+        final String uploadId = _client.initiateMultipartUpload(new InitiateMultipartUploadRequest(_bucketName, key)).getUploadId();
+        final int partsInFlight = _uploadPartsInFlight;
+        // Buffers of uploaded parts are reused, so at most partsInFlight parts are held in memory
+        final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(partsInFlight);
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final List<Future<PartETag>> parts = new ArrayList<Future<PartETag>>();
+        try
+        {
+            byte[] buffer = firstPart;
+            int read = firstPart.length;
+            int allocated = 1;
+            while (read > 0)
+            {
+                if (failure.get() != null)
+                    throw failure.get();
+                if (parts.size() == MAX_UPLOAD_PARTS)
+                    throw new IOException("Content of " + key + " exceeds " + MAX_UPLOAD_PARTS + " parts of " + firstPart.length + " bytes");
+
+                parts.add(_transferExecutor.submit(new UploadPartTask(key, uploadId, parts.size() + 1, buffer, read, buffers, failure)));
+
+                buffer = buffers.poll();
+                if (buffer == null)
+                {
+                    if (allocated < partsInFlight)
+                    {
+                        buffer = new byte[firstPart.length];
+                        allocated++;
+                    }
+                    else
+                    {
+                        buffer = buffers.take();
+                    }
+                }
+                read = readPart(content, buffer);
+            }
+
+            final List<PartETag> partETags = new ArrayList<PartETag>(parts.size());
+            for (Future<PartETag> part : parts)
+            {
+                partETags.add(part.get());
+            }
+            _client.completeMultipartUpload(new CompleteMultipartUploadRequest(_bucketName, key, uploadId, partETags));
+        } catch (Exception e) {
+            for (Future<PartETag> part : parts)
+            {
+                part.cancel(true);
+            }
+            try
+            {
+                _client.abortMultipartUpload(new AbortMultipartUploadRequest(_bucketName, key, uploadId));
+            } catch (AmazonClientException abortException) {
+                abortException.printStackTrace();
+            }
+            if (e instanceof InterruptedException)
+            {
+                Thread.currentThread().interrupt();
+            }
+            final Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            throw new AmazonClientException("Can't upload " + key, cause);
+        }
     }
+
+    /**
+     * <p>
+     * Gets length of the rest of the content when it is known without reading it.
+     * </p>
+     *
+     * @param content The content.
+     * @return The length or -1 if unknown
+     */
+    private static long getContentLength(InputStream content)
+    {
+        try
+        {
+            if (content instanceof FileInputStream)
+            {
+                final FileChannel channel = ((FileInputStream) content).getChannel();
+                return channel.size() - channel.position();
+            }
+            if (content instanceof ByteArrayInputStream)
+            {
+                return content.available();
+            }
+            if (content instanceof SizedInputStream)
+            {
+                return ((SizedInputStream) content).getRemaining();
+            }
+        } catch (IOException e) {
+            // Unknown length, content is read in parts
+        }
+        return -1;
+    }
+
+    /**
+     * <p>
+     * Reads content until the buffer is full or the content ends.
+     * </p>
+     *
+     * @return number of bytes read
+     */
+    private static int readPart(InputStream content, byte[] buffer) throws IOException
+    {
+        int count = 0;
+        int read;
+        while (count < buffer.length && (read = content.read(buffer, count, buffer.length - count)) >= 0)
+        {
+            count += read;
+        }
+        return count;
+    }
+
+    /**
+     * <p>
+     * Deletes all objects in the directory and its subdirectories.
+     * </p>
+     */
     public void deleteDirectory(String path)
     {
-        String key = getKey(path);
-        DeleteObjectRequest directory = new DeleteObjectRequest(_bucketName, key);
-        _client.deleteObject(directory);
+        deleteDirectory(path, null);
+    }
+
+    /**
+     * <p>
+     * Deletes the object at the path and all objects in the directory and its subdirectories, so the path can name
+     * either a file or a directory. Keys are deleted in batches of 1000 keys, batches run in parallel up to the delete
+     * concurrency and within the delete rate limit.
+     * </p>
+     *
+     * @param path     The directory or file path.
+     * @param listener The listener notified after every batch, can be null.
+     * @return The number of deleted keys, including the path itself
+     */
+    public long deleteDirectory(String path, DeleteProgressListener listener)
+    {
+        final String prefix = getDirectoryPrefix(path);
+        if (prefix.isEmpty())
+            throw new IllegalArgumentException("path");
+        final String key = getKey(path);
+
+        final Iterator<IFileInfo> objects = new ListingIterator(prefix, true);
+        final Iterator<String> keys = new Iterator<String>()
+        {
+            // The path may name a single object, e.g. a stale manifest
+            private boolean _keyDeleted = key.equals(prefix);
+
+            @Override
+            public boolean hasNext()
+            {
+                return !_keyDeleted || objects.hasNext();
+            }
+
+            @Override
+            public String next()
+            {
+                if (!_keyDeleted)
+                {
+                    _keyDeleted = true;
+                    return key;
+                }
+                return objects.next().getPath();
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+        try
+        {
+            return deleteKeys(keys, new DeleteProgress(path, listener), "objects in " + prefix);
+        } finally {
+            final S3MetadataCache metadataCache = _metadataCache;
+            if (metadataCache != null)
+            {
+                metadataCache.invalidate(key);
+                metadataCache.invalidatePrefix(prefix);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Deletes the files in batches of 1000 keys, e.g. all indexed cache files of a document,
+     * without listing their directories. Batches run the same way as in {@link #deleteDirectory(String, DeleteProgressListener)}.
+     * </p>
+     *
+     * @param paths The file paths.
+     * @return The number of deleted keys, missing keys included
+     */
+    public long deleteFiles(Collection<String> paths)
+    {
+        if (paths == null)
+            throw new IllegalArgumentException("paths");
+
+        final List<String> keys = new ArrayList<String>(paths.size());
+        for (String path : paths)
+        {
+            keys.add(getKey(path));
+        }
+        try
+        {
+            return deleteKeys(keys.iterator(), new DeleteProgress(null, null), "objects of " + keys.size() + " files");
+        } finally {
+            final S3MetadataCache metadataCache = _metadataCache;
+            if (metadataCache != null)
+            {
+                for (String key : keys)
+                {
+                    metadataCache.invalidate(key);
+                }
+            }
+        }
+    }
+
+    private long deleteKeys(Iterator<String> keys, DeleteProgress progress, String description)
+    {
+        final int concurrency = _deleteConcurrency;
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final RateLimiter rateLimiter = new RateLimiter(_deleteRateLimit);
+        try
+        {
+            List<DeleteObjectsRequest.KeyVersion> batch = new ArrayList<DeleteObjectsRequest.KeyVersion>(MAX_DELETE_BATCH_SIZE);
+            while (keys.hasNext() && progress.getError() == null)
+            {
+                batch.add(new DeleteObjectsRequest.KeyVersion(keys.next()));
+                if (batch.size() == MAX_DELETE_BATCH_SIZE)
+                {
+                    submitDeleteBatch(batch, inFlight, rateLimiter, progress);
+                    batch = new ArrayList<DeleteObjectsRequest.KeyVersion>(MAX_DELETE_BATCH_SIZE);
+                }
+            }
+            if (!batch.isEmpty() && progress.getError() == null)
+            {
+                submitDeleteBatch(batch, inFlight, rateLimiter, progress);
+            }
+            // Waits for running batches
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmazonClientException("Deleting " + description + " was interrupted", e);
+        }
+
+        if (progress.getError() != null)
+            throw new AmazonClientException("Can't delete " + description, progress.getError());
+        if (progress.getFailed() > 0)
+            throw new AmazonClientException("Can't delete " + progress.getFailed() + " " + description);
+        return progress.getDeleted();
+    }
+
+    private void submitDeleteBatch(final List<DeleteObjectsRequest.KeyVersion> keys, final Semaphore inFlight, RateLimiter rateLimiter,
+                                   final DeleteProgress progress) throws InterruptedException
+    {
+        inFlight.acquire();
+        rateLimiter.acquire(keys.size());
+        final Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    DeleteObjectsRequest request = new DeleteObjectsRequest(_bucketName).withKeys(keys).withQuiet(true);
+                    _client.deleteObjects(request);
+                    progress.add(keys.size(), 0);
+                } catch (MultiObjectDeleteException e) {
+                    final int failed = e.getErrors().size();
+                    progress.add(keys.size() - failed, failed);
+                } catch (RuntimeException e) {
+                    progress.fail(keys.size(), e);
+                } finally {
+                    inFlight.release();
+                }
+            }
+        };
+        try
+        {
+            _transferExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
     }
 
     public IFileInfo getFileInfo(String path)
     {
         String key = getKey(path);
-        GetObjectMetadataRequest request = new GetObjectMetadataRequest(_bucketName, key);
+        final S3MetadataCache metadataCache = _metadataCache;
+        final S3MetadataCache.Entry cached = metadataCache != null ? metadataCache.get(key) : null;
+        if (cached != null && cached.exists())
+        {
+            IFileInfo file = new FileInfo();
+            file.setPath(path);
+            file.setSize(cached.getSize());
+            file.setLastModified(cached.getLastModified());
+            file.setDirectory(false);
+            return file;
+        }
 
-        ObjectMetadata response = _client.getObjectMetadata(request);
+        ObjectMetadata response = getObjectMetadata(key);
         IFileInfo file = new FileInfo();
         file.setPath(path);
         file.setSize(((ObjectMetadata) response).getContentLength());
@@ -86,15 +803,73 @@ public class AmazonS3FileStorage implements IFileStorage
         return file;
     }
 
+    /**
+     * <p>
+     * Gets files and directories in the directory, all pages of the listing are read.
+     * Use {@link #iterateFilesInfo(String)} to process big directories without holding the whole listing.
+     * </p>
+     */
     public List<IFileInfo> getFilesInfo(String path)
     {
-        String key = getKey(path);
-        ListObjectsRequest request = new ListObjectsRequest();
-        request.setBucketName(_bucketName);
-        request.setPrefix(key.length() > 1 ? key : "");
-        request.setDelimiter(File.pathSeparator);
-        ObjectListing response = _client.listObjects(request);
-        List<IFileInfo> files = new ArrayList();
+        List<IFileInfo> files = new ArrayList<IFileInfo>();
+        Iterator<IFileInfo> iterator = iterateFilesInfo(path);
+        while (iterator.hasNext())
+        {
+            files.add(iterator.next());
+        }
+        return files;
+    }
+
+    /**
+     * <p>
+     * Iterates files and directories in the directory, listing pages are requested as the iteration proceeds.
+     * </p>
+     *
+     * @param path The directory path.
+     * @return The iterator, directories are returned first in every page
+     */
+    public Iterator<IFileInfo> iterateFilesInfo(String path)
+    {
+        return new ListingIterator(getDirectoryPrefix(path), false);
+    }
+
+    /**
+     * <p>
+     * Iterates files and directories in several directories, the directories are listed in parallel
+     * and their pages are returned in the order they arrive. The iterator of several directories is {@link Closeable},
+     * closing it stops listings of an iteration which is abandoned before its end.
+     * </p>
+     *
+     * @param paths The directory paths.
+     * @return The iterator
+     */
+    public Iterator<IFileInfo> iterateFilesInfo(Collection<String> paths)
+    {
+        if (paths == null)
+            throw new IllegalArgumentException("paths");
+        if (paths.size() == 1)
+            return iterateFilesInfo(paths.iterator().next());
+
+        List<String> prefixes = new ArrayList<String>(paths.size());
+        for (String path : paths)
+        {
+            prefixes.add(getDirectoryPrefix(path));
+        }
+        return new ParallelListingIterator(prefixes);
+    }
+
+    /**
+     * <p>
+     * Requests one page of the directory listing and advances the request to the next page.
+     * </p>
+     *
+     * @param request The listing request.
+     * @return The page, null continuation token of the request marks the last page
+     */
+    private List<IFileInfo> listPage(ListObjectsV2Request request)
+    {
+        ListObjectsV2Result response = _client.listObjectsV2(request);
+        List<IFileInfo> files = new ArrayList<IFileInfo>();
 
         // add directories
         for (String directory : response.getCommonPrefixes())
@@ -106,28 +881,472 @@ public class AmazonS3FileStorage implements IFileStorage
         }
 
         // add files
+        final S3MetadataCache metadataCache = _metadataCache;
         for (S3ObjectSummary entry : response.getObjectSummaries())
         {
+            if (metadataCache != null)
+            {
+                metadataCache.put(entry.getKey(), entry.getSize(), entry.getLastModified(), entry.getETag());
+            }
             IFileInfo fileDescription = new FileInfo();
             fileDescription.setPath(entry.getKey());
-                    fileDescription.setDirectory(false);
-                    fileDescription.setLastModified(entry.getLastModified());
-                    fileDescription.setSize(entry.getSize());
+            fileDescription.setDirectory(false);
+            fileDescription.setLastModified(entry.getLastModified());
+            fileDescription.setSize(entry.getSize());
             files.add(fileDescription);
         }
+
+        request.setContinuationToken(response.isTruncated() ? response.getNextContinuationToken() : null);
         return files;
     }
 
+    /**
+     * <p>
+     * Creates listing request, recursive listing returns all objects under the prefix without directories.
+     * </p>
+     */
+    private ListObjectsV2Request createListingRequest(String prefix, boolean recursive)
+    {
+        ListObjectsV2Request request = new ListObjectsV2Request()
+                .withBucketName(_bucketName)
+                .withPrefix(prefix);
+        return recursive ? request : request.withDelimiter(String.valueOf(getPathDelimiter()));
+    }
+
+    /**
+     * <p>
+     * Gets the key prefix of objects in the directory, e.g. {@code cache/document/}.
+     * </p>
+     */
+    private String getDirectoryPrefix(String path)
+    {
+        String key = getKey(path);
+        if (!key.isEmpty() && key.charAt(key.length() - 1) != getPathDelimiter())
+        {
+            key += getPathDelimiter();
+        }
+        return key;
+    }
+
+    /**
+     * <p>
+     * Requests object metadata from S3 and caches it.
+     * </p>
+     *
+     * @param key The object key.
+     * @return The metadata
+     */
+    private ObjectMetadata getObjectMetadata(String key)
+    {
+        ObjectMetadata metadata = _client.getObjectMetadata(new GetObjectMetadataRequest(_bucketName, key));
+        final S3MetadataCache metadataCache = _metadataCache;
+        if (metadataCache != null)
+        {
+            metadataCache.put(key, metadata.getContentLength(), metadata.getLastModified(), metadata.getETag());
+        }
+        return metadata;
+    }
+
+    private void invalidateMetadata(String key)
+    {
+        final S3MetadataCache metadataCache = _metadataCache;
+        if (metadataCache != null)
+        {
+            metadataCache.invalidate(key);
+        }
+    }
+
     private String getKey(String path)
     {
-        return path.replaceAll("\\+", File.pathSeparator).trim();
+        return path.replace('\\', getPathDelimiter()).trim();
     }
 
     public void dispose()
     {
+        _transferExecutor.shutdownNow();
+        _listingExecutor.shutdownNow();
         if (_client != null)
         {
             _client = null;
         }
     }
+
+    /**
+     * <p>
+     * Uploads one part of multipart upload and returns its buffer for reuse
+     * </p>
+     */
+    private class UploadPartTask implements Callable<PartETag>
+    {
+        private final String _key;
+        private final String _uploadId;
+        private final int _partNumber;
+        private final byte[] _buffer;
+        private final int _length;
+        private final BlockingQueue<byte[]> _buffers;
+        private final AtomicReference<Exception> _failure;
+
+        UploadPartTask(String key, String uploadId, int partNumber, byte[] buffer, int length, BlockingQueue<byte[]> buffers, AtomicReference<Exception> failure)
+        {
+            _key = key;
+            _uploadId = uploadId;
+            _partNumber = partNumber;
+            _buffer = buffer;
+            _length = length;
+            _buffers = buffers;
+            _failure = failure;
+        }
+
+        @Override
+        public PartETag call()
+        {
+            try
+            {
+                UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(_bucketName)
+                        .withKey(_key)
+                        .withUploadId(_uploadId)
+                        .withPartNumber(_partNumber)
+                        .withPartSize(_length)
+                        .withInputStream(new ByteArrayInputStream(_buffer, 0, _length));
+                return _client.uploadPart(request).getPartETag();
+            } catch (RuntimeException e) {
+                _failure.compareAndSet(null, e);
+                throw e;
+            } finally {
+                _buffers.offer(_buffer);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Iterates listing of one directory page by page
+     * </p>
+     */
+    private class ListingIterator implements Iterator<IFileInfo>
+    {
+        private final ListObjectsV2Request _request;
+        private Iterator<IFileInfo> _page = Collections.<IFileInfo>emptyIterator();
+        private boolean _completed;
+
+        ListingIterator(String prefix, boolean recursive)
+        {
+            _request = createListingRequest(prefix, recursive);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!_page.hasNext() && !_completed)
+            {
+                _page = listPage(_request).iterator();
+                _completed = _request.getContinuationToken() == null;
+            }
+            return _page.hasNext();
+        }
+
+        @Override
+        public IFileInfo next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return _page.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * <p>
+     * Iterates listings of several directories requested in parallel, pages are passed through a bounded queue
+     * so listing does not run far ahead of the consumer
+     * </p>
+     */
+    private class ParallelListingIterator implements Iterator<IFileInfo>, Closeable
+    {
+        private final BlockingQueue<ListingPage> _pages;
+        private volatile boolean _closed;
+        private int _running;
+        private Iterator<IFileInfo> _page = Collections.<IFileInfo>emptyIterator();
+
+        ParallelListingIterator(List<String> prefixes)
+        {
+            _pages = new ArrayBlockingQueue<ListingPage>(Math.max(1, prefixes.size() * 2));
+            _running = prefixes.size();
+            for (final String prefix : prefixes)
+            {
+                _listingExecutor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        list(prefix);
+                    }
+                });
+            }
+        }
+
+        private void list(String prefix)
+        {
+            ListingPage last = new ListingPage(null, null);
+            try
+            {
+                ListObjectsV2Request request = createListingRequest(prefix, false);
+                do
+                {
+                    if (_closed || !offer(new ListingPage(listPage(request), null)))
+                        return;
+                }
+                while (request.getContinuationToken() != null);
+            } catch (RuntimeException e) {
+                last = new ListingPage(null, e);
+            }
+            offer(last);
+        }
+
+        private boolean offer(ListingPage page)
+        {
+            try
+            {
+                // Gives up when the iteration was abandoned
+                return _pages.offer(page, LISTING_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while (!_page.hasNext() && _running > 0)
+            {
+                final ListingPage page;
+                try
+                {
+                    page = _pages.poll(LISTING_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AmazonClientException("Listing was interrupted", e);
+                }
+                if (page == null)
+                {
+                    close();
+                    throw new AmazonClientException("Listing timed out");
+                }
+                if (page._files != null)
+                {
+                    _page = page._files.iterator();
+                    continue;
+                }
+                _running--;
+                if (page._error != null)
+                {
+                    close();
+                    throw page._error;
+                }
+            }
+            return _page.hasNext();
+        }
+
+        @Override
+        public IFileInfo next()
+        {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return _page.next();
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * <p>
+         * Stops the listings, listings waiting for free space in the queue get it and end before the next request.
+         * </p>
+         */
+        @Override
+        public void close()
+        {
+            _closed = true;
+            _running = 0;
+            _page = Collections.<IFileInfo>emptyIterator();
+            _pages.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * Page of files of parallel listing, page without files marks the end of one directory listing
+     * </p>
+     */
+    private static class ListingPage
+    {
+        private final List<IFileInfo> _files;
+        private final RuntimeException _error;
+
+        ListingPage(List<IFileInfo> files, RuntimeException error)
+        {
+            _files = files;
+            _error = error;
+        }
+    }
+
+    /**
+     * <p>
+     * Receives progress of directory delete.
+     * </p>
+     */
+    public interface DeleteProgressListener
+    {
+        /**
+         * <p>
+         * Called after a batch of objects was deleted, from the transfer threads.
+         * </p>
+         *
+         * @param path    The deleted directory path.
+         * @param deleted Total number of deleted objects.
+         * @param failed  Total number of objects which could not be deleted.
+         */
+        void onProgress(String path, long deleted, long failed);
+    }
+
+    /**
+     * <p>
+     * Counts objects of one directory delete
+     * </p>
+     */
+    private static class DeleteProgress
+    {
+        private final String _path;
+        private final DeleteProgressListener _listener;
+        private long _deleted;
+        private long _failed;
+        private RuntimeException _error;
+
+        DeleteProgress(String path, DeleteProgressListener listener)
+        {
+            _path = path;
+            _listener = listener;
+        }
+
+        void add(long deleted, long failed)
+        {
+            final long totalDeleted;
+            final long totalFailed;
+            synchronized (this)
+            {
+                _deleted += deleted;
+                _failed += failed;
+                totalDeleted = _deleted;
+                totalFailed = _failed;
+            }
+            if (_listener != null)
+            {
+                try
+                {
+                    _listener.onProgress(_path, totalDeleted, totalFailed);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        void fail(long failed, RuntimeException error)
+        {
+            synchronized (this)
+            {
+                if (_error == null)
+                {
+                    _error = error;
+                }
+            }
+            add(0, failed);
+        }
+
+        synchronized long getDeleted()
+        {
+            return _deleted;
+        }
+
+        synchronized long getFailed()
+        {
+            return _failed;
+        }
+
+        synchronized RuntimeException getError()
+        {
+            return _error;
+        }
+    }
+
+    /**
+     * <p>
+     * Spaces out requests so that at most the given number of permits is used per second
+     * </p>
+     */
+    private static class RateLimiter
+    {
+        private final double _nanosPerPermit;
+        private long _nextFreeAt = System.nanoTime();
+
+        RateLimiter(int permitsPerSecond)
+        {
+            _nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / (double) permitsPerSecond;
+        }
+
+        void acquire(int permits) throws InterruptedException
+        {
+            final long wait;
+            synchronized (this)
+            {
+                final long now = System.nanoTime();
+                final long at = Math.max(now, _nextFreeAt);
+                _nextFreeAt = at + (long) (permits * _nanosPerPermit);
+                wait = at - now;
+            }
+            if (wait > 0)
+            {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor createTransferExecutor(int threads)
+    {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "s3-transfer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static ThreadPoolExecutor createListingExecutor()
+    {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "s3-listing");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
 }
@@ -0,0 +1,91 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Input stream reading directly from a byte buffer, e.g. a memory mapped file,
+ * without copying the content to the heap first.
+ * </p>
+ */
+public class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer _buffer;
+    private int _mark = -1;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code ByteBufferInputStream} class.
+     * </p>
+     *
+     * @param buffer The buffer, content between its position and limit is read.
+     */
+    public ByteBufferInputStream(ByteBuffer buffer) {
+        if (buffer == null)
+            throw new IllegalArgumentException("buffer");
+        _buffer = buffer.duplicate();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!_buffer.hasRemaining())
+            return -1;
+        return _buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!_buffer.hasRemaining())
+            return -1;
+
+        int count = Math.min(len, _buffer.remaining());
+        _buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0)
+            return 0;
+
+        int count = (int) Math.min(n, _buffer.remaining());
+        _buffer.position(_buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return _buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        _mark = _buffer.position();
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        if (_mark < 0)
+            throw new IOException("Mark is not set");
+        _buffer.position(_mark);
+    }
+
+    /**
+     * <p>
+     * Gets a read-only view of remaining content, e.g. to write it to a channel.
+     * </p>
+     *
+     * @return The remaining content.
+     */
+    public ByteBuffer remaining() {
+        return _buffer.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,132 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Bloom filter of cache entry paths. When the filter says a path is absent it is definitely
+ * not cached, so a cache miss is answered without asking the storage. Present answers may be
+ * false positives with the configured probability and still go to the storage.
+ * Entries can not be removed; the filter is rebuilt from a storage listing instead.
+ * </p>
+ */
+public class CacheBloomFilter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final AtomicLongArray _bits;
+    private final long _bitCount;
+    private final int _hashCount;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheBloomFilter} class.
+     * </p>
+     *
+     * @param expectedEntries           Expected number of cache entries.
+     * @param falsePositiveProbability Acceptable false positive probability e.g. 0.01.
+     */
+    public CacheBloomFilter(long expectedEntries, double falsePositiveProbability) {
+        if (expectedEntries <= 0)
+            throw new IllegalArgumentException("expectedEntries");
+        if (falsePositiveProbability <= 0 || falsePositiveProbability >= 1)
+            throw new IllegalArgumentException("falsePositiveProbability");
+
+        final long bits = (long) Math.ceil(-expectedEntries * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        final long words = Math.max(1, (bits + 63) >>> 6);
+        if (words > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("expectedEntries");
+
+        _bits = new AtomicLongArray((int) words);
+        _bitCount = words << 6;
+        _hashCount = Math.max(1, (int) Math.round((double) _bitCount / expectedEntries * Math.log(2)));
+    }
+
+    /**
+     * <p>
+     * Adds the path to the filter.
+     * </p>
+     *
+     * @param path The cache entry path.
+     */
+    public void put(String path) {
+        final long hash = hash(path);
+        final int first = (int) hash;
+        final int second = (int) (hash >>> 32);
+        for (int n = 1; n <= _hashCount; n++) {
+            final long bit = index(first + n * second);
+            final int word = (int) (bit >>> 6);
+            final long mask = 1L << bit;
+            long value;
+            do {
+                value = _bits.get(word);
+                if ((value & mask) != 0) {
+                    break;
+                }
+            } while (!_bits.compareAndSet(word, value, value | mask));
+        }
+    }
+
+    /**
+     * <p>
+     * Checks whether the path may be cached.
+     * </p>
+     *
+     * @param path The cache entry path.
+     * @return false if the path is definitely not cached
+     */
+    public boolean mightContain(String path) {
+        final long hash = hash(path);
+        final int first = (int) hash;
+        final int second = (int) (hash >>> 32);
+        for (int n = 1; n <= _hashCount; n++) {
+            final long bit = index(first + n * second);
+            if ((_bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Gets the size of the filter in bits.
+     * </p>
+     */
+    public long getBitCount() {
+        return _bitCount;
+    }
+
+    /**
+     * <p>
+     * Gets the number of hash functions.
+     * </p>
+     */
+    public int getHashCount() {
+        return _hashCount;
+    }
+
+    private long index(int combinedHash) {
+        return (combinedHash & 0x7FFFFFFFL) % _bitCount;
+    }
+
+    /**
+     * <p>
+     * 64-bit FNV-1a hash of normalized path, finished with a murmur mixer.
+     * </p>
+     */
+    private static long hash(String path) {
+        final byte[] bytes = CacheListing.normalize(path).getBytes(UTF_8);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
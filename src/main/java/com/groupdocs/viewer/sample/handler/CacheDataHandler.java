@@ -9,9 +9,9 @@ import com.groupdocs.viewer.storage.IFileStorage;
 import org.apache.commons.io.IOUtils;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * <p>
@@ -19,6 +19,22 @@ import java.util.List;
  * </p>
  */
 public class CacheDataHandler implements ICacheDataHandler {
+    private static final int DEFAULT_WRITE_BUFFER_THRESHOLD = 4 * 1024 * 1024;
+    private static final String HTML_DIR_NAME = "html";
+    private static final String IMAGE_DIR_NAME = "image";
+    private static final String HTML_EXTENSION = ".html";
+    private static final String RESOURCES_DIR_NAME = "resources";
+    private static final String ATTACHMENTS_DIR_NAME = "attahments";
+    private static final int MAX_REMEMBERED_FOLDERS = 10000;
+    private static final long MAX_REQUEST_LISTING_AGE = 30 * 1000L;
+
+    private static final ThreadLocal<StringBuilder> PATH_BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
     private /* final */ ViewerConfig _viewerConfig;
     private /* final */ IFileStorage _fileStorage;
 
@@ -29,7 +45,97 @@ public class CacheDataHandler implements ICacheDataHandler {
      */
     private /* final */ List<String> _patternsToReplace = new ArrayList<String>();
 
+    /**
+     * <p>
+     * Non empty patterns to replace and cache path with trailing separator, computed once
+     * </p>
+     */
+    private /* final */ String[] _patterns;
+    private /* final */ String _cachePathPrefix;
+
+    /**
+     * <p>
+     * Resolved document cache folders by file guid
+     * </p>
+     */
+    private final ConcurrentMap<String, String> _documentFolders = new ConcurrentHashMap<String, String>();
+
+    /**
+     * <p>
+     * Page resources folders which were already created
+     * </p>
+     */
+    private final Set<String> _createdFolders = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * <p>
+     * Manifests of page resources by manifest path: pending ones collect resources of pages
+     * being rendered and are saved with the page, saved ones answer resource enumeration
+     * </p>
+     */
+    private final ConcurrentMap<String, PageResourceManifest> _pendingManifests = new ConcurrentHashMap<String, PageResourceManifest>();
+    private final ConcurrentMap<String, PageResourceManifest> _savedManifests = new ConcurrentHashMap<String, PageResourceManifest>();
+    private final Object _manifestLock = new Object();
+
+    /**
+     * <p>
+     * Optional in-memory tier in front of the file storage, keyed by resolved file path
+     * </p>
+     */
+    private /* final */ PageCache _memoryCache;
+
+    /**
+     * <p>
+     * Request of current thread with cache files of the requested document, see {@link #beginRequest(String)}
+     * </p>
+     */
+    private final ThreadLocal<Request> _request = new ThreadLocal<Request>();
+
+    /**
+     * <p>
+     * Bloom filter of cached files, lookups of files missing in it skip the storage when this process
+     * is the only writer of the cache
+     * </p>
+     */
+    private volatile CacheBloomFilter _negativeLookupFilter;
+    private volatile CacheBloomFilter _pendingLookupFilter;
+    private volatile boolean _soleWriter;
+
+    /**
+     * <p>
+     * Maximum number of bytes of a file being saved which are kept in memory
+     * </p>
+     */
+    private volatile int _writeBufferThreshold = DEFAULT_WRITE_BUFFER_THRESHOLD;
+
+    /**
+     * <p>
+     * Cache entries produced for each document
+     * </p>
+     */
+    private volatile CacheEntryIndex _entryIndex = new CacheEntryIndex();
+
+    /**
+     * <p>
+     * Fingerprint of the options cached pages are rendered with, see {@link #setRenderOptions(Object)}
+     * </p>
+     */
+    private volatile String _optionsSuffix = "";
+
     public CacheDataHandler(ViewerConfig viewerConfig, IFileStorage fileStorage) {
+        this(viewerConfig, fileStorage, null);
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheDataHandler} class with in-memory tier.
+     * </p>
+     *
+     * @param viewerConfig The viewer configuration.
+     * @param fileStorage  The file storage.
+     * @param memoryCache  The in-memory tier, e.g. {@link MemoryPageCache} or {@link OffHeapPageCache}, can be null to disable it.
+     */
+    public CacheDataHandler(ViewerConfig viewerConfig, IFileStorage fileStorage, PageCache memoryCache) {
         if (viewerConfig == null)
             throw new IllegalArgumentException("viewerConfig");
         if (fileStorage == null)
@@ -37,9 +143,19 @@ public class CacheDataHandler implements ICacheDataHandler {
 
         _viewerConfig = viewerConfig;
         _fileStorage = fileStorage;
+        _memoryCache = memoryCache;
 
         _patternsToReplace.add(_viewerConfig.getCachePath());
         _patternsToReplace.add(_viewerConfig.getStoragePath());
+
+        List<String> patterns = new ArrayList<String>();
+        for (String pattern : _patternsToReplace) {
+            if (pattern != null && !pattern.isEmpty()) {
+                patterns.add(pattern);
+            }
+        }
+        _patterns = patterns.toArray(new String[patterns.size()]);
+        _cachePathPrefix = _viewerConfig.getCachePath() + File.separator;
     }
 
     /**
@@ -52,6 +168,16 @@ public class CacheDataHandler implements ICacheDataHandler {
      */
     public boolean exists(CacheFileDescription cacheFileDescription) {
         String path = getFilePath(cacheFileDescription);
+        if (_memoryCache != null && _memoryCache.contains(path)) {
+            return true;
+        }
+        if (isDefinitelyMissing(path)) {
+            return false;
+        }
+        final CacheListing listing = getRequestListing();
+        if (listing != null && listing.covers(path)) {
+            return listing.contains(path);
+        }
         return _fileStorage.fileExists(path);
     }
 
@@ -66,10 +192,23 @@ public class CacheDataHandler implements ICacheDataHandler {
     public InputStream getInputStream(CacheFileDescription cacheFileDescription) {
         String path = getFilePath(cacheFileDescription);
 
+        if (_memoryCache != null) {
+            final InputStream cached = _memoryCache.getInputStream(path);
+            if (cached != null) {
+                return new MemoryTierInputStream(path, cached);
+            }
+        }
+        if (isDefinitelyMissing(path)) {
+            return null;
+        }
+
         if (_fileStorage.fileExists(path)) {
             InputStream fileStream = _fileStorage.getFile(path);
             try /*JAVA: was using*/ {
                 final byte[] bytes = IOUtils.toByteArray(fileStream);
+                if (_memoryCache != null) {
+                    _memoryCache.put(path, bytes);
+                }
                 return new ByteArrayInputStream(bytes);
                 } catch (IOException e) {
                 e.printStackTrace();
@@ -94,15 +233,175 @@ public class CacheDataHandler implements ICacheDataHandler {
      */
     public OutputStream getOutputSaveStream(CacheFileDescription cacheFileDescription) {
         final String path = getFilePath(cacheFileDescription);
+        final CacheListing listing = getRequestListing();
+        _entryIndex.add(CacheEntryIndex.getGuid(cacheFileDescription), path);
+
+        final OutputStream stream = new SpillOutputStream(_writeBufferThreshold) {
+            @Override
+            protected void onClose() throws IOException {
+                addToNegativeLookupFilter(path);
+                final InputStream content = openInputStream();
+                try {
+                    _fileStorage.saveFile(path, content);
+                } finally {
+                    content.close();
+                }
+                // Again, in case the filter was being rebuilt while the file was saved
+                addToNegativeLookupFilter(path);
+                if (listing != null && listing.covers(path)) {
+                    listing.added(path);
+                }
+                if (_memoryCache != null) {
+                    if (isInMemory() && size() <= _memoryCache.getMaxEntrySize()) {
+                        _memoryCache.put(path, toByteArray());
+                    } else {
+                        _memoryCache.remove(path);
+                    }
+                }
+            }
+        };
 
-        return new ByteArrayOutputStream(){
+        if (cacheFileDescription.getCacheFileType() == CacheFileType.PageResource) {
+            return recordResource((CachedPageResourceDescription) cacheFileDescription, stream);
+        }
+        if (cacheFileDescription.getCacheFileType() == CacheFileType.Page && CacheFileNames.isHtmlPage((CachedPageDescription) cacheFileDescription)) {
+            final String manifestPath = PageResourceManifest.getManifestPath(buildHtmlPageResourcesFolder((CachedPageDescription) cacheFileDescription));
+            final String guid = CacheEntryIndex.getGuid(cacheFileDescription);
+            return new FilterOutputStream(stream) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.close();
+                    publishManifest(guid, manifestPath);
+                }
+            };
+        }
+        return stream;
+    }
+
+    /**
+     * <p>
+     * Wraps the stream of the page resource, so the resource is added to the manifest of its page once it is saved.
+     * </p>
+     *
+     * @param resourceDescription The page resource description.
+     * @param stream              The resource stream.
+     * @return The recording stream
+     */
+    private OutputStream recordResource(final CachedPageResourceDescription resourceDescription, OutputStream stream) {
+        final String manifestPath = PageResourceManifest.getManifestPath(buildHtmlPageResourcesFolder(resourceDescription.getCachedPageDescription()));
+        return new PageResourceManifest.RecordingOutputStream(stream) {
             @Override
-            public void close() {
-                _fileStorage.saveFile(path, new ByteArrayInputStream(toByteArray()));
+            protected void onRecorded(long size, String hash) throws IOException {
+                final String name = resourceDescription.getResourceName();
+                addToManifest(manifestPath, new PageResourceManifest.Entry(name, size, PageResourceManifest.guessContentType(name), hash));
             }
         };
     }
 
+    /**
+     * <p>
+     * Adds the resource to the manifest of its page. Resources are collected in memory and saved once with the page.
+     * The first resource of a render starts a new manifest and removes the one saved by previous render,
+     * resources of the page are enumerated from its folder until the page is saved again.
+     * </p>
+     */
+    private void addToManifest(String manifestPath, PageResourceManifest.Entry entry) {
+        PageResourceManifest manifest;
+        boolean created = false;
+        synchronized (_manifestLock) {
+            manifest = _pendingManifests.get(manifestPath);
+            if (manifest == null) {
+                if (_pendingManifests.size() >= MAX_REMEMBERED_FOLDERS) {
+                    _pendingManifests.clear();
+                }
+                manifest = new PageResourceManifest();
+                _pendingManifests.put(manifestPath, manifest);
+                _savedManifests.remove(manifestPath);
+                created = true;
+            }
+            manifest.add(entry);
+        }
+
+        if (created && !isDefinitelyMissing(manifestPath)) {
+            _fileStorage.deleteDirectory(manifestPath);
+        }
+    }
+
+    /**
+     * <p>
+     * Saves the manifest of resources collected for the page being saved, pages without resources get an empty one.
+     * </p>
+     */
+    private void publishManifest(String guid, String manifestPath) {
+        PageResourceManifest manifest;
+        synchronized (_manifestLock) {
+            manifest = _pendingManifests.remove(manifestPath);
+            if (manifest == null) {
+                manifest = new PageResourceManifest();
+            }
+            if (_savedManifests.size() >= MAX_REMEMBERED_FOLDERS) {
+                _savedManifests.clear();
+            }
+            _savedManifests.put(manifestPath, manifest);
+        }
+        saveManifest(guid, manifestPath, manifest);
+    }
+
+    private void saveManifest(String guid, String manifestPath, PageResourceManifest manifest) {
+        _entryIndex.add(guid, manifestPath);
+        addToNegativeLookupFilter(manifestPath);
+        _fileStorage.saveFile(manifestPath, new ByteArrayInputStream(manifest.toByteArray()));
+        final CacheListing listing = getRequestListing();
+        if (listing != null && listing.covers(manifestPath)) {
+            listing.added(manifestPath);
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the maximum number of bytes of a file being saved which are kept in memory,
+     * bigger files are spilled to a temporary file before they are passed to the file storage.
+     * </p>
+     *
+     * @return The threshold in bytes.
+     */
+    public int getWriteBufferThreshold() {
+        return _writeBufferThreshold;
+    }
+
+    /**
+     * <p>
+     * Sets the maximum number of bytes of a file being saved which are kept in memory.
+     * </p>
+     *
+     * @param writeBufferThreshold The threshold in bytes.
+     */
+    public void setWriteBufferThreshold(int writeBufferThreshold) {
+        if (writeBufferThreshold < 0)
+            throw new IllegalArgumentException("writeBufferThreshold");
+        _writeBufferThreshold = writeBufferThreshold;
+    }
+
+    /**
+     * <p>
+     * Sets options pages cached by this handler are rendered with, their fingerprint becomes part of
+     * cache file names, see {@link RenderOptionsFingerprint#getCacheSuffix(Object)}. Warm-up and live requests
+     * using the handler find the same entries, pages rendered with other options should be cached
+     * by another handler.
+     * </p>
+     *
+     * @param options The rendering options, null for names without fingerprint.
+     * @throws IllegalArgumentException when the options contain a value without stable representation
+     */
+    public void setRenderOptions(Object options) {
+        _optionsSuffix = RenderOptionsFingerprint.getCacheSuffix(options);
+    }
+
     /**
      * <p>
      * Gets the html page resources folder path.
@@ -112,27 +411,40 @@ public class CacheDataHandler implements ICacheDataHandler {
      * @return System.String.
      */
     public String getHtmlPageResourcesFolder(CachedPageDescription cachedPageDescription) {
-        String resourcesForPageFolderName = _viewerConfig.getPageNamePrefix() + cachedPageDescription.getPageNumber();
+        final String result = buildHtmlPageResourcesFolder(cachedPageDescription);
 
-        String docFolder = cachedPageDescription.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
+        // Folders are created once, following lookups of the same page are served without syscalls
+        if (!_createdFolders.contains(result)) {
+            final File folder = new File(result);
+            if (!folder.mkdirs() && !folder.isDirectory()) {
+                System.err.println("Can't create directory");
+            } else {
+                if (_createdFolders.size() >= MAX_REMEMBERED_FOLDERS) {
+                    _createdFolders.clear();
+                }
+                _createdFolders.add(result);
+            }
         }
-        String result = _viewerConfig.getCachePath() + docFolder + "\\html\\resources\\" + resourcesForPageFolderName;
 
-        if (result.contains("//"))
-            result = result.replace("//", File.separator);
+        return result;
+    }
 
-        if (!new File(result).mkdirs()) {
-            System.err.println("Can't create directory");
-        }
+    private String buildHtmlPageResourcesFolder(CachedPageDescription cachedPageDescription) {
+        final String docFolder = getDocumentFolder(cachedPageDescription.getGuid());
 
-        return result;
+        return getPathBuilder()
+                .append(docFolder)
+                .append(File.separatorChar).append(HTML_DIR_NAME)
+                .append(File.separatorChar).append(RESOURCES_DIR_NAME)
+                .append(File.separatorChar).append(_viewerConfig.getPageNamePrefix()).append(cachedPageDescription.getPageNumber())
+                .append(_optionsSuffix)
+                .toString();
     }
 
     /**
      * <p>
-     * Gets the html page resources descriptions.
+     * Gets the html page resources descriptions from the page resources manifest,
+     * the resources folder is listed only for pages cached without manifest.
      * </p>
      *
      * @param cachedPageDescription The cached page description
@@ -140,6 +452,15 @@ public class CacheDataHandler implements ICacheDataHandler {
      */
     public List<CachedPageResourceDescription> getHtmlPageResources(CachedPageDescription cachedPageDescription) {
         List<CachedPageResourceDescription> result = new ArrayList<CachedPageResourceDescription>();
+
+        final PageResourceManifest manifest = getHtmlPageResourceManifest(cachedPageDescription);
+        if (manifest != null) {
+            for (PageResourceManifest.Entry entry : manifest.getEntries()) {
+                result.add(new CachedPageResourceDescription(cachedPageDescription, entry.getName()));
+            }
+            return result;
+        }
+
         String resourcesFolder = getHtmlPageResourcesFolder(cachedPageDescription);
 
         List<IFileInfo> resources = _fileStorage.getFilesInfo(resourcesFolder);
@@ -153,6 +474,64 @@ public class CacheDataHandler implements ICacheDataHandler {
         return result;
     }
 
+    /**
+     * <p>
+     * Gets the manifest of html page resources with their sizes, content types and hashes.
+     * Manifests saved or read by this handler are remembered, so repeated enumerations do not reach the storage.
+     * </p>
+     *
+     * @param cachedPageDescription The cached page description
+     * @return The manifest or null if the page was cached without manifest
+     */
+    public PageResourceManifest getHtmlPageResourceManifest(CachedPageDescription cachedPageDescription) {
+        final String manifestPath = PageResourceManifest.getManifestPath(buildHtmlPageResourcesFolder(cachedPageDescription));
+
+        PageResourceManifest manifest = _savedManifests.get(manifestPath);
+        if (manifest != null) {
+            return manifest;
+        }
+        if (isDefinitelyMissing(manifestPath)) {
+            return null;
+        }
+        final CacheListing listing = getRequestListing();
+        if (listing != null && listing.covers(manifestPath) ? !listing.contains(manifestPath) : !_fileStorage.fileExists(manifestPath)) {
+            return null;
+        }
+
+        final InputStream input = _fileStorage.getFile(manifestPath);
+        if (input == null) {
+            return null;
+        }
+        try {
+            manifest = PageResourceManifest.read(input);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            try {
+                input.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        if (manifest != null) {
+            synchronized (_manifestLock) {
+                // Do not replace manifest of a page saved meanwhile
+                if (!_pendingManifests.containsKey(manifestPath)) {
+                    if (_savedManifests.size() >= MAX_REMEMBERED_FOLDERS) {
+                        _savedManifests.clear();
+                    }
+                    final PageResourceManifest saved = _savedManifests.putIfAbsent(manifestPath, manifest);
+                    if (saved != null) {
+                        manifest = saved;
+                    }
+                }
+            }
+        }
+        return manifest;
+    }
+
     /**
      * <p>
      * Gets the last modification date.
@@ -164,6 +543,14 @@ public class CacheDataHandler implements ICacheDataHandler {
     public Date getLastModificationDate(CacheFileDescription cacheFileDescription) {
         String path = getFilePath(cacheFileDescription);
 
+        if (isDefinitelyMissing(path)) {
+            return null;
+        }
+        final CacheListing listing = getRequestListing();
+        if (listing != null && listing.covers(path)) {
+            return listing.getLastModified(path);
+        }
+
         if (_fileStorage.fileExists(path)) {
             IFileInfo fileInfo = _fileStorage.getFileInfo(path);
             return fileInfo.getLastModified();
@@ -172,33 +559,257 @@ public class CacheDataHandler implements ICacheDataHandler {
         return null;
     }
 
+    /**
+     * <p>
+     * Builds bloom filter of all cached files from a listing of the cache folder and starts using it,
+     * so lookups of files which are not cached are answered without storage round-trips.
+     * Files saved while the filter is being built are added to it as well.
+     * The filter knows only files saved by this handler, so it is consulted only after
+     * {@link #setSoleWriter(boolean)} confirmed no other process or node writes to the cache storage.
+     * </p>
+     *
+     * @param expectedEntries          Expected number of cache files.
+     * @param falsePositiveProbability Acceptable false positive probability e.g. 0.01.
+     */
+    public void rebuildNegativeLookupFilter(long expectedEntries, double falsePositiveProbability) {
+        final CacheBloomFilter filter = new CacheBloomFilter(expectedEntries, falsePositiveProbability);
+        _pendingLookupFilter = filter;
+        try {
+            addFiles(_viewerConfig.getCachePath(), filter);
+            _negativeLookupFilter = filter;
+        } finally {
+            _pendingLookupFilter = null;
+        }
+    }
+
+    /**
+     * <p>
+     * Stops using the negative lookup filter.
+     * </p>
+     */
+    public void disableNegativeLookupFilter() {
+        _negativeLookupFilter = null;
+    }
+
+    /**
+     * <p>
+     * Sets whether this handler is the only writer of the cache storage. Caches shared with other
+     * processes or nodes, e.g. in a common S3 bucket, must not be declared so: files they write are
+     * unknown to the negative lookup filter and would be reported missing, and to the entry index,
+     * so they would survive {@link #clearCache(String)}.
+     * </p>
+     *
+     * @param soleWriter true if no other process writes to the cache storage.
+     */
+    public void setSoleWriter(boolean soleWriter) {
+        _soleWriter = soleWriter;
+    }
+
+    private boolean isDefinitelyMissing(String path) {
+        if (!_soleWriter) {
+            return false;
+        }
+        final CacheBloomFilter filter = _negativeLookupFilter;
+        return filter != null && !filter.mightContain(path);
+    }
+
+    private void addToNegativeLookupFilter(String path) {
+        final CacheBloomFilter pending = _pendingLookupFilter;
+        if (pending != null) {
+            pending.put(path);
+        }
+        final CacheBloomFilter filter = _negativeLookupFilter;
+        if (filter != null) {
+            filter.put(path);
+        }
+    }
+
+    private void addFiles(String folder, CacheBloomFilter filter) {
+        final String normalizedFolder = CacheListing.normalize(folder);
+        for (IFileInfo fileInfo : _fileStorage.getFilesInfo(folder)) {
+            String path = CacheListing.normalize(fileInfo.getPath());
+            if (!path.startsWith(normalizedFolder + "/")) {
+                path = normalizedFolder + "/" + path;
+            }
+            if (fileInfo.isDirectory()) {
+                addFiles(path, filter);
+            } else {
+                filter.put(path);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Lists all cache files of the document with a single listing of its cache folder
+     * (one call per sub folder when the storage lists folders non-recursively).
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return Presence and modification dates of the document's cache files
+     */
+    public CacheListing listDocumentCache(String guid) {
+        final String folder = getDocumentFolder(guid);
+        final CacheListing listing = new CacheListing(folder);
+        collectFiles(folder, listing);
+        return listing;
+    }
+
+    /**
+     * <p>
+     * Lists cache files of the document and uses the listing for {@link #exists} and
+     * {@link #getLastModificationDate} calls of current thread until the returned request is closed,
+     * so checking all pages of the document costs one listing instead of two calls per page.
+     * The request must be closed in a {@code finally} block, a listing which was not closed
+     * is not used once it is older than 30 seconds.
+     * </p>
+     * <pre>
+     * CacheDataHandler.Request request = cacheDataHandler.beginRequest(guid);
+     * try {
+     *     List&lt;PageHtml&gt; pages = htmlHandler.getPages(guid, options);
+     * } finally {
+     *     request.close();
+     * }
+     * </pre>
+     *
+     * @param guid The file unique identifier.
+     * @return The request to close when it is finished
+     */
+    public Request beginRequest(String guid) {
+        final Request request = new Request(listDocumentCache(guid), _request.get());
+        _request.set(request);
+        return request;
+    }
+
+    private CacheListing getRequestListing() {
+        final Request request = _request.get();
+        if (request == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - request._startedAt > MAX_REQUEST_LISTING_AGE) {
+            _request.remove();
+            return null;
+        }
+        return request._listing;
+    }
+
+    private void collectFiles(String folder, CacheListing listing) {
+        final String normalizedFolder = CacheListing.normalize(folder);
+        for (IFileInfo fileInfo : _fileStorage.getFilesInfo(folder)) {
+            String path = CacheListing.normalize(fileInfo.getPath());
+            // Storages return either full paths or names relative to the folder
+            if (!path.startsWith(normalizedFolder + "/")) {
+                path = normalizedFolder + "/" + path;
+            }
+            if (fileInfo.isDirectory()) {
+                collectFiles(path, listing);
+            } else {
+                listing.add(path, fileInfo);
+            }
+        }
+    }
+
     /**
      * <p>
      * Clears files from cache older than specified time interval.
      * </p>
      */
     public void clearCache() {
+        if (_memoryCache != null) {
+            _memoryCache.clear();
+        }
+        // Files written while the cache is being cleared survive and are indexed again
+        _entryIndex.clear();
+        _entryIndex.setComplete(true);
+        _createdFolders.clear();
+        clearManifests();
         _fileStorage.deleteDirectory(_viewerConfig.getCachePath());
     }
 
     /**
      * <p>
-     * Clears cache files related to specified document.
+     * Clears cache files related to specified document. When the entry index is complete and this process is
+     * the only writer of the cache, see {@link #setSoleWriter(boolean)}, only the indexed files are deleted,
+     * in batches on {@link AmazonS3FileStorage}. Otherwise the document folder is deleted.
      * </p>
      *
      * @param guid The file unique identifier, full path for local storage e.g. c:\\storage\\document.txt,
      *             relative path e.g document.txt, url e.g. http://site.com/document.txt.
      */
     public void clearCache(String guid) {
+        final CacheEntryIndex index = _entryIndex;
+        final boolean complete = index.isComplete() && _soleWriter;
+        final Set<String> entries = index.remove(guid);
+        if (_memoryCache != null) {
+            for (String path : entries) {
+                _memoryCache.remove(path);
+            }
+        }
+        _request.remove();
+        _createdFolders.clear();
+        clearManifests();
 
-        for (String str : _patternsToReplace) {
-            guid = guid.replace(str, "");
+        if (complete) {
+            deleteFiles(entries);
+            return;
         }
-        String fullFolderPath = _viewerConfig.getCachePath() + File.separator + guid;
 
+        // The index misses entries written before it was loaded or by other nodes,
+        // so the whole document folder is deleted
+        String fullFolderPath = getDocumentFolder(guid);
+
+        if (_memoryCache != null) {
+            // Separator keeps entries of documents whose folder merely starts with the same name
+            _memoryCache.removeByPrefix(fullFolderPath + File.separator);
+        }
         _fileStorage.deleteDirectory(fullFolderPath);
     }
 
+    private void deleteFiles(Collection<String> paths) {
+        if (paths.isEmpty()) {
+            return;
+        }
+        if (_fileStorage instanceof AmazonS3FileStorage) {
+            ((AmazonS3FileStorage) _fileStorage).deleteFiles(paths);
+            return;
+        }
+        // IFileStorage has no file delete, directory delete of a file path removes the file
+        for (String path : paths) {
+            _fileStorage.deleteDirectory(path);
+        }
+    }
+
+    private void clearManifests() {
+        synchronized (_manifestLock) {
+            _pendingManifests.clear();
+            _savedManifests.clear();
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the index of cache entries produced for each document.
+     * </p>
+     *
+     * @return The cache entry index.
+     */
+    public CacheEntryIndex getEntryIndex() {
+        return _entryIndex;
+    }
+
+    /**
+     * <p>
+     * Sets the index of cache entries produced for each document, e.g. a persisted one.
+     * </p>
+     *
+     * @param entryIndex The cache entry index.
+     */
+    public void setEntryIndex(CacheEntryIndex entryIndex) {
+        if (entryIndex == null)
+            throw new IllegalArgumentException("entryIndex");
+        _entryIndex = entryIndex;
+    }
+
     /**
      * <p>
      * Gets the path to the cached document.
@@ -233,24 +844,42 @@ public class CacheDataHandler implements ICacheDataHandler {
         if (document == null)
             throw new RuntimeException("cacheFileDescription object should be an instance of CachedDocumentDescription class");
 
-        String documentName = document.getName().replaceAll("\\.\\w+$", document.getOutputExtension());
+        String documentName = document.getName().replaceAll("\\.\\w+$", _optionsSuffix + CacheFileNames.normalizeExtension(document.getOutputExtension()));
         String documentFolder = buildCachedDocumentFolderPath(document);
-        return documentFolder + File.separator + documentName;
+        return getPathBuilder().append(documentFolder).append(File.separatorChar).append(documentName).toString();
     }
 
     private String buildCachedDocumentFolderPath(CachedDocumentDescription cachedPageDescription) {
-        String docFolder = cachedPageDescription.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
+        return getDocumentFolder(cachedPageDescription.getGuid());
+    }
+
+    /**
+     * <p>
+     * Gets the cache folder of the document, resolved folders are remembered.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The document cache folder path.
+     */
+    private String getDocumentFolder(String guid) {
+        String result = _documentFolders.get(guid);
+        if (result != null) {
+            return result;
         }
 
-//        switch (_viewerConfig.getEngineType()) {
-//            case EngineTypes.Image:
-//                return PathExtension.combine(_viewerConfig.getCachePath(), docFolder, Constants.IMAGE_DIR_NAME);
-//            case EngineTypes.Html:
-//                return PathExtension.combine(_viewerConfig.getCachePath(), docFolder, Constants.HTML_DIR_NAME);
-//        }
-        return null;
+        String docFolder = guid;
+        for (String pattern : _patterns) {
+            if (docFolder.contains(pattern)) {
+                docFolder = docFolder.replace(pattern, "");
+            }
+        }
+        result = getPathBuilder().append(_cachePathPrefix).append(docFolder).toString();
+
+        if (_documentFolders.size() >= MAX_REMEMBERED_FOLDERS) {
+            _documentFolders.clear();
+        }
+        _documentFolders.put(guid, result);
+        return result;
     }
 
     private String getAttachmentFilePath(CacheFileDescription cacheFileDescription) {
@@ -258,12 +887,12 @@ public class CacheDataHandler implements ICacheDataHandler {
         if (attachment == null)
             throw new RuntimeException("attachment is null");
 
-        String docFolder = attachment.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
-        }
-
-        return _viewerConfig.getCachePath() + File.separator + docFolder + File.separator + "attahments" + File.separator + attachment.getAttachmentName();
+        final String docFolder = getDocumentFolder(attachment.getGuid());
+        return getPathBuilder()
+                .append(docFolder)
+                .append(File.separatorChar).append(ATTACHMENTS_DIR_NAME)
+                .append(File.separatorChar).append(attachment.getAttachmentName())
+                .toString();
     }
 
     private String getResourceFilePath(CacheFileDescription cacheFileDescription) {
@@ -272,8 +901,8 @@ public class CacheDataHandler implements ICacheDataHandler {
         if (resourceDescription == null)
             throw new RuntimeException("resourceDescription is null");
 
-        String resourcesPath = getHtmlPageResourcesFolder(resourceDescription.getCachedPageDescription());
-        return resourcesPath + File.separator + resourceDescription.getResourceName();
+        final String resourcesPath = getHtmlPageResourcesFolder(resourceDescription.getCachedPageDescription());
+        return getPathBuilder().append(resourcesPath).append(File.separatorChar).append(resourceDescription.getResourceName()).toString();
     }
 
     private String getPageFilePath(CacheFileDescription cacheFileDescription) {
@@ -282,38 +911,174 @@ public class CacheDataHandler implements ICacheDataHandler {
         if (pageDescription == null)
             throw new RuntimeException("pageDescription is null");
 
-        String fileName = buildPageFileName(pageDescription);
-        String folder = buildCachedPageFolderPath(pageDescription);
-        return folder + File.separator + fileName;
+        final String docFolder = getDocumentFolder(pageDescription.getGuid());
+        final String optionsSuffix = _optionsSuffix;
+        final StringBuilder builder = getPathBuilder().append(docFolder).append(File.separatorChar);
+
+        if (CacheFileNames.isHtmlPage(pageDescription)) {
+            return builder.append(HTML_DIR_NAME).append(File.separatorChar)
+                    .append(_viewerConfig.getPageNamePrefix()).append(pageDescription.getPageNumber())
+                    .append(optionsSuffix).append(HTML_EXTENSION)
+                    .toString();
+        }
+
+        builder.append(IMAGE_DIR_NAME).append(File.separatorChar)
+                .append(pageDescription.getWidth()).append('x').append(pageDescription.getHeight()).append("px");
+        if (pageDescription.getExtractText()) {
+            builder.append(".pdf");
+        }
+        builder.append(File.separatorChar)
+                .append(_viewerConfig.getPageNamePrefix()).append(pageDescription.getPageNumber());
+
+        return builder.append(CacheFileNames.getQualitySuffix(pageDescription))
+                .append(optionsSuffix)
+                .append(CacheFileNames.normalizeExtension(pageDescription.getOutputExtension()))
+                .toString();
     }
 
-    private String buildPageFileName(CachedPageDescription cachedPageDescription) {
-//        switch (_viewerConfig.getEngineType()) {
-//            case EngineTypes.Image:
-//                return StringExtensions.format("{0}{1}{2}", _viewerConfig.getPageNamePrefix(), cachedPageDescription.getPageNumber(), cachedPageDescription.getOutputExtension());
-//            case EngineTypes.Html:
-//                return StringExtensions.format("{0}{1}.html", _viewerConfig.getPageNamePrefix(), cachedPageDescription.getPageNumber());
-//        }
-        return null;
+    /**
+     * <p>
+     * Gets builder of current thread, paths are built without intermediate strings.
+     * </p>
+     */
+    private static StringBuilder getPathBuilder() {
+        final StringBuilder builder = PATH_BUILDER.get();
+        builder.setLength(0);
+        return builder;
     }
 
-    private String buildCachedPageFolderPath(CachedPageDescription cachedPageDescription) {
-        String docFolder = cachedPageDescription.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
+    /**
+     * <p>
+     * Request of current thread using listing of the document cache files, see {@link #beginRequest(String)}
+     * </p>
+     */
+    public class Request implements Closeable {
+        private final CacheListing _listing;
+        private final Request _previous;
+        private final long _startedAt = System.currentTimeMillis();
+
+        private Request(CacheListing listing, Request previous) {
+            _listing = listing;
+            _previous = previous;
         }
 
-//        switch (_viewerConfig.getEngineType()) {
-//            case EngineTypes.Image:
-//                String dimmensionsSubFolder = getDimensionsSubFolder(cachedPageDescription);
-//                return PathExtension.combine(_viewerConfig.getCachePath(), docFolder, Constants.IMAGE_DIR_NAME, dimmensionsSubFolder);
-//            case EngineTypes.Html:
-//                return PathExtension.combine(_viewerConfig.getCachePath(), docFolder, Constants.HTML_DIR_NAME);
-//        }
-        return null;
+        /**
+         * <p>
+         * Stops using the listing, the request which was active before this one is restored.
+         * </p>
+         */
+        public void close() {
+            if (_request.get() != this) {
+                return;
+            }
+            if (_previous == null) {
+                _request.remove();
+            } else {
+                _request.set(_previous);
+            }
+        }
     }
 
-    private String getDimensionsSubFolder(CachedPageDescription cachedPageDescription) {
-        return cachedPageDescription.getWidth() + "x" + cachedPageDescription.getHeight() + "px";
+    /**
+     * <p>
+     * Stream reading content from the memory tier, the content is read from the file storage
+     * from the same position when it is evicted from memory while it is read
+     * </p>
+     */
+    private class MemoryTierInputStream extends InputStream {
+        private final String _path;
+        private InputStream _source;
+        private boolean _fromStorage;
+        private long _position;
+        private long _mark;
+
+        MemoryTierInputStream(String path, InputStream source) {
+            _path = path;
+            _source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = _source.read(b, off, len);
+            } catch (IOException e) {
+                if (_fromStorage)
+                    throw e;
+                openStorage(_position);
+                read = _source.read(b, off, len);
+            }
+            if (read > 0) {
+                _position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = _source.skip(n);
+            _position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return _source.available();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            _mark = _position;
+            if (!_fromStorage) {
+                _source.mark(readLimit);
+            }
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            if (_fromStorage) {
+                openStorage(_mark);
+            } else {
+                _source.reset();
+            }
+            _position = _mark;
+        }
+
+        @Override
+        public void close() throws IOException {
+            _source.close();
+        }
+
+        private void openStorage(long position) throws IOException {
+            final InputStream stream = _fileStorage.getFile(_path);
+            if (stream == null)
+                throw new FileNotFoundException("Cached content was evicted and removed from the storage: " + _path);
+            long remaining = position;
+            while (remaining > 0) {
+                final long skipped = stream.skip(remaining);
+                if (skipped > 0) {
+                    remaining -= skipped;
+                } else if (stream.read() >= 0) {
+                    remaining--;
+                } else {
+                    stream.close();
+                    throw new EOFException("Cached content in the storage is shorter than " + position + " bytes: " + _path);
+                }
+            }
+            _source.close();
+            _source = stream;
+            _fromStorage = true;
+        }
     }
 }
@@ -0,0 +1,289 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.domain.cache.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Index of cache entries produced for each document: pages, resources, attachments and documents.
+ * It lets cache handlers delete the entries of a single document without listing or walking its folder.
+ * The index lives in memory and can be persisted to a file, e.g. on shutdown. It is complete when it
+ * has seen every write since the cache was empty, e.g. after the whole cache was cleared; handlers fall back
+ * to deleting document folders while it is not.
+ * </p>
+ */
+public class CacheEntryIndex {
+    private static final Logger LOGGER = Logger.getLogger(CacheEntryIndex.class.getName());
+    private static final int FORMAT_VERSION = 2;
+
+    private final ConcurrentMap<String, Set<String>> _entries = new ConcurrentHashMap<String, Set<String>>();
+
+    /**
+     * <p>
+     * Document GUID of each indexed path
+     * </p>
+     */
+    private final ConcurrentMap<String, String> _guids = new ConcurrentHashMap<String, String>();
+    private final File _file;
+    private volatile boolean _complete;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheEntryIndex} class which is not persisted.
+     * </p>
+     */
+    public CacheEntryIndex() {
+        _file = null;
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheEntryIndex} class and loads entries
+     * from the file if it exists. A complete index is loaded as complete only once: the file is marked
+     * incomplete until it is saved again, so an index which missed writes before a crash is not trusted.
+     * </p>
+     *
+     * @param file The file where the index is persisted.
+     */
+    public CacheEntryIndex(File file) {
+        if (file == null)
+            throw new IllegalArgumentException("file");
+
+        _file = file;
+        if (file.exists()) {
+            load();
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the document GUID of the cache file description.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return The document GUID
+     */
+    public static String getGuid(CacheFileDescription cacheFileDescription) {
+        switch (cacheFileDescription.getCacheFileType()) {
+            case CacheFileType.Page:
+                return ((CachedPageDescription) cacheFileDescription).getGuid();
+            case CacheFileType.PageResource:
+                return ((CachedPageResourceDescription) cacheFileDescription).getCachedPageDescription().getGuid();
+            case CacheFileType.Attachment:
+                return ((CachedAttachmentDescription) cacheFileDescription).getGuid();
+            case CacheFileType.Document:
+                return ((CachedDocumentDescription) cacheFileDescription).getGuid();
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Adds the cache entry of the document.
+     * </p>
+     *
+     * @param guid The document GUID.
+     * @param path The cache entry path.
+     */
+    public synchronized void add(String guid, String path) {
+        if (guid == null || path == null)
+            return;
+
+        final String previous = _guids.put(path, guid);
+        if (previous != null && !previous.equals(guid)) {
+            removeFromDocument(previous, path);
+        }
+        Set<String> paths = _entries.get(guid);
+        if (paths == null) {
+            paths = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            _entries.put(guid, paths);
+        }
+        paths.add(path);
+    }
+
+    /**
+     * <p>
+     * Removes the cache entry, e.g. after its file was evicted.
+     * </p>
+     *
+     * @param path The cache entry path.
+     */
+    public synchronized void removePath(String path) {
+        final String guid = _guids.remove(path);
+        if (guid != null) {
+            removeFromDocument(guid, path);
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the cache entries of the document.
+     * </p>
+     *
+     * @param guid The document GUID.
+     * @return The entry paths, empty if the document is not indexed
+     */
+    public Set<String> get(String guid) {
+        final Set<String> paths = _entries.get(guid);
+        return paths == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(paths);
+    }
+
+    /**
+     * <p>
+     * Removes the document from the index.
+     * </p>
+     *
+     * @param guid The document GUID.
+     * @return The removed entry paths, empty if the document was not indexed
+     */
+    public synchronized Set<String> remove(String guid) {
+        final Set<String> paths = _entries.remove(guid);
+        if (paths == null) {
+            return Collections.emptySet();
+        }
+        for (String path : paths) {
+            _guids.remove(path, guid);
+        }
+        return paths;
+    }
+
+    /**
+     * <p>
+     * Removes all documents from the index.
+     * </p>
+     */
+    public synchronized void clear() {
+        _entries.clear();
+        _guids.clear();
+    }
+
+    /**
+     * <p>
+     * Indicates whether the index holds every entry of the cache, so a document can be invalidated
+     * by deleting its indexed entries only.
+     * </p>
+     *
+     * @return true if the index is complete
+     */
+    public boolean isComplete() {
+        return _complete;
+    }
+
+    /**
+     * <p>
+     * Marks the index complete, e.g. after the whole cache was cleared, or incomplete.
+     * </p>
+     *
+     * @param complete true if the index holds every entry of the cache.
+     */
+    public void setComplete(boolean complete) {
+        _complete = complete;
+    }
+
+    /**
+     * <p>
+     * Gets the number of indexed documents.
+     * </p>
+     */
+    public int size() {
+        return _entries.size();
+    }
+
+    /**
+     * <p>
+     * Saves the index to its file.
+     * </p>
+     */
+    public synchronized void save() {
+        if (_file == null)
+            return;
+
+        final File parent = _file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            LOGGER.warning("Can't create directory " + parent);
+            return;
+        }
+
+        final File tempFile = new File(_file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            output.writeInt(FORMAT_VERSION);
+            output.writeBoolean(_complete);
+            output.writeInt(_entries.size());
+            for (Map.Entry<String, Set<String>> entry : _entries.entrySet()) {
+                final List<String> paths = new ArrayList<String>(entry.getValue());
+                output.writeUTF(entry.getKey());
+                output.writeInt(paths.size());
+                for (String path : paths) {
+                    output.writeUTF(path);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Can't save cache index " + _file, e);
+            return;
+        }
+
+        if (_file.exists() && !_file.delete() || !tempFile.renameTo(_file)) {
+            LOGGER.warning("Can't replace cache index " + _file);
+        }
+    }
+
+    /**
+     * <p>
+     * Saves the index when JVM shuts down.
+     * </p>
+     */
+    public void saveOnShutdown() {
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                save();
+            }
+        }, "cache-index-save"));
+    }
+
+    private void removeFromDocument(String guid, String path) {
+        final Set<String> paths = _entries.get(guid);
+        if (paths != null && paths.remove(path) && paths.isEmpty()) {
+            _entries.remove(guid);
+        }
+    }
+
+    private void load() {
+        boolean complete;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(_file)))) {
+            if (input.readInt() != FORMAT_VERSION) {
+                LOGGER.warning("Unsupported cache index format " + _file);
+                return;
+            }
+            complete = input.readBoolean();
+            final int documents = input.readInt();
+            for (int document = 0; document < documents; document++) {
+                final String guid = input.readUTF();
+                final int paths = input.readInt();
+                for (int n = 0; n < paths; n++) {
+                    add(guid, input.readUTF());
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Can't load cache index " + _file, e);
+            return;
+        }
+
+        if (complete) {
+            try (RandomAccessFile file = new RandomAccessFile(_file, "rw")) {
+                // Flag follows the format version
+                file.seek(4);
+                file.writeBoolean(false);
+                _complete = true;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Can't update cache index " + _file, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Removes files from local cache folder, either by age or by total size.
+ * Top level document folders are walked in parallel. Size based eviction can run periodically
+ * on a background thread: when cache size grows over the high watermark, least recently
+ * accessed files are removed until the size drops under the low watermark.
+ * An html page, its resources folder and its resources manifest are evicted together as one unit,
+ * so a cached page never refers to evicted resources.
+ * </p>
+ */
+public class CacheEvictor {
+    private static final Logger LOGGER = Logger.getLogger(CacheEvictor.class.getName());
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String HTML_DIR_NAME = "html";
+    private static final String RESOURCES_DIR_NAME = "resources";
+    private static final String HTML_EXTENSION = ".html";
+
+    /**
+     * <p>
+     * Temporary files and folders modified within this time may belong to a file being written
+     * </p>
+     */
+    private static final long WRITE_GRACE_PERIOD = 10 * 60 * 1000L;
+
+    private final Path _cacheRoot;
+    private final int _parallelism;
+    private ScheduledExecutorService _scheduler;
+    private volatile EvictionListener _listener;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheEvictor} class.
+     * </p>
+     *
+     * @param cacheRoot The cache root folder.
+     */
+    public CacheEvictor(Path cacheRoot) {
+        this(cacheRoot, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheEvictor} class.
+     * </p>
+     *
+     * @param cacheRoot   The cache root folder.
+     * @param parallelism Number of threads walking the cache folder.
+     */
+    public CacheEvictor(Path cacheRoot, int parallelism) {
+        if (cacheRoot == null)
+            throw new IllegalArgumentException("cacheRoot");
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism");
+
+        _cacheRoot = cacheRoot;
+        _parallelism = parallelism;
+    }
+
+    /**
+     * <p>
+     * Removes files which were not modified for specified time interval. Temporary files of writes
+     * in progress and folders just created for them are kept. A page is removed with its resources
+     * only when none of them was modified within the interval.
+     * </p>
+     *
+     * @param olderThan The time interval in milliseconds, 0 removes all files.
+     * @return Number of removed files and bytes
+     */
+    public Result evictOlderThan(long olderThan) {
+        final long now = System.currentTimeMillis();
+        final long startFrom = now - olderThan;
+        final long writtenFrom = now - WRITE_GRACE_PERIOD;
+        final boolean removeAll = olderThan <= 0;
+        final Result result = new Result();
+        final ConcurrentMap<Path, Unit> units = new ConcurrentHashMap<Path, Unit>();
+
+        walk(new Visitor() {
+            @Override
+            public void visit(Path file, BasicFileAttributes attributes) {
+                final long lastModified = attributes.lastModifiedTime().toMillis();
+                if (file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                    if (lastModified < writtenFrom && (removeAll || lastModified < startFrom)) {
+                        delete(file, attributes.size(), result);
+                    }
+                } else if (removeAll) {
+                    delete(file, attributes.size(), result);
+                } else {
+                    addToUnit(units, file, attributes.size(), lastModified);
+                }
+            }
+        }, writtenFrom);
+
+        for (Unit unit : units.values()) {
+            if (unit._lastUsed < startFrom) {
+                delete(unit, result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Removes least recently accessed files when cache size exceeds the high watermark.
+     * </p>
+     *
+     * @param highWatermark Cache size in bytes which triggers eviction.
+     * @param lowWatermark  Cache size in bytes to evict down to.
+     * @return Number of removed files and bytes
+     */
+    public Result evictToSize(long highWatermark, long lowWatermark) {
+        if (lowWatermark > highWatermark)
+            throw new IllegalArgumentException("lowWatermark");
+
+        final ConcurrentMap<Path, Unit> units = new ConcurrentHashMap<Path, Unit>();
+        final AtomicLong totalSize = new AtomicLong();
+        walk(new Visitor() {
+            @Override
+            public void visit(Path file, BasicFileAttributes attributes) {
+                if (!file.getFileName().toString().endsWith(TEMP_FILE_SUFFIX)) {
+                    addToUnit(units, file, attributes.size(), getLastUsed(attributes));
+                }
+                totalSize.addAndGet(attributes.size());
+            }
+        }, Long.MIN_VALUE);
+
+        final Result result = new Result();
+        long size = totalSize.get();
+        if (size <= highWatermark) {
+            return result;
+        }
+
+        final List<Unit> sorted = new ArrayList<Unit>(units.values());
+        Collections.sort(sorted, new Comparator<Unit>() {
+            @Override
+            public int compare(Unit first, Unit second) {
+                return first._lastUsed < second._lastUsed ? -1 : (first._lastUsed == second._lastUsed ? 0 : 1);
+            }
+        });
+        for (Unit unit : sorted) {
+            if (size <= lowWatermark) {
+                break;
+            }
+            size -= delete(unit, result);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Sets the listener notified about every removed file, e.g. to keep an index of cache entries up to date.
+     * </p>
+     *
+     * @param listener The listener, null to remove it.
+     */
+    public void setListener(EvictionListener listener) {
+        _listener = listener;
+    }
+
+    /**
+     * <p>
+     * Starts periodic size based eviction on a background thread.
+     * </p>
+     *
+     * @param period        The period in milliseconds.
+     * @param highWatermark Cache size in bytes which triggers eviction.
+     * @param lowWatermark  Cache size in bytes to evict down to.
+     */
+    public synchronized void start(long period, final long highWatermark, final long lowWatermark) {
+        if (lowWatermark > highWatermark)
+            throw new IllegalArgumentException("lowWatermark");
+        stop();
+
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cache-evictor");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        _scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final Result result = evictToSize(highWatermark, lowWatermark);
+                    if (result.getFiles() > 0) {
+                        LOGGER.info("Cache eviction: " + result);
+                    }
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Cache eviction failed", e);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * <p>
+     * Stops periodic eviction.
+     * </p>
+     */
+    public synchronized void stop() {
+        if (_scheduler != null) {
+            _scheduler.shutdownNow();
+            _scheduler = null;
+        }
+    }
+
+    /**
+     * <p>
+     * Walks all cache files.
+     * </p>
+     *
+     * @param visitor           The file visitor.
+     * @param removeFoldersFrom Empty folders modified before this time are removed, {@link Long#MIN_VALUE} to keep them.
+     */
+    private void walk(final Visitor visitor, final long removeFoldersFrom) {
+        if (!Files.isDirectory(_cacheRoot)) {
+            return;
+        }
+
+        final List<Path> children = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(_cacheRoot)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Can't list cache folder " + _cacheRoot, e);
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(_parallelism, Math.max(1, children.size())));
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Path child : children) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        Files.walkFileTree(child, new SimpleFileVisitor<Path>() {
+                            /**
+                             * <p>
+                             * Folders old enough to be removed, checked before their files are removed
+                             * since removing a file touches the folder
+                             * </p>
+                             */
+                            private final Set<Path> _oldFolders = new HashSet<Path>();
+
+                            @Override
+                            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes) {
+                                if (removeFoldersFrom != Long.MIN_VALUE && attributes.lastModifiedTime().toMillis() < removeFoldersFrom) {
+                                    _oldFolders.add(dir);
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                                if (attributes.isRegularFile()) {
+                                    visitor.visit(file, attributes);
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                                // Folders created just now are about to receive a file being written
+                                if (_oldFolders.remove(dir)) {
+                                    try {
+                                        Files.deleteIfExists(dir);
+                                    } catch (IOException ignore) {
+                                        //NOTE: not empty
+                                    }
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Can't walk cache folder", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean delete(Path file, long size, Result result) {
+        try {
+            if (Files.deleteIfExists(file)) {
+                result._files.incrementAndGet();
+                result._bytes.addAndGet(size);
+                final EvictionListener listener = _listener;
+                if (listener != null) {
+                    listener.evicted(file);
+                }
+                return true;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Can't delete " + file, e);
+        }
+        return false;
+    }
+
+    /**
+     * <p>
+     * Deletes files of the unit, the page first so it is not served while its resources are being removed.
+     * </p>
+     *
+     * @return Number of deleted bytes
+     */
+    private long delete(Unit unit, Result result) {
+        long deleted = 0;
+        for (Entry entry : unit._entries) {
+            if (delete(entry._path, entry._size, result)) {
+                deleted += entry._size;
+            }
+        }
+        return deleted;
+    }
+
+    private static void addToUnit(ConcurrentMap<Path, Unit> units, Path file, long size, long lastUsed) {
+        final Path key = getUnitKey(file);
+        Unit unit = units.get(key);
+        if (unit == null) {
+            final Unit created = new Unit();
+            unit = units.putIfAbsent(key, created);
+            if (unit == null) {
+                unit = created;
+            }
+        }
+        unit.add(new Entry(file, size, lastUsed), isPage(file));
+    }
+
+    /**
+     * <p>
+     * Gets the key of the eviction unit of the file. An html page {@code html/page1.html}, its resources
+     * {@code html/resources/page1/*} and its manifest {@code html/resources/page1.manifest} share the key
+     * {@code html/resources/page1}, other files are units of their own.
+     * </p>
+     */
+    private static Path getUnitKey(Path file) {
+        final Path folder = file.getParent();
+        final String name = file.getFileName().toString();
+        if (isPage(file)) {
+            return folder.resolve(RESOURCES_DIR_NAME).resolve(name.substring(0, name.length() - HTML_EXTENSION.length()));
+        }
+        if (name.endsWith(PageResourceManifest.FILE_EXTENSION) && isNamed(folder, RESOURCES_DIR_NAME)) {
+            return folder.resolve(name.substring(0, name.length() - PageResourceManifest.FILE_EXTENSION.length()));
+        }
+        if (folder != null && isNamed(folder.getParent(), RESOURCES_DIR_NAME)) {
+            return folder;
+        }
+        return file;
+    }
+
+    private static boolean isPage(Path file) {
+        return file.getFileName().toString().endsWith(HTML_EXTENSION) && isNamed(file.getParent(), HTML_DIR_NAME);
+    }
+
+    private static boolean isNamed(Path folder, String name) {
+        return folder != null && folder.getFileName() != null && name.equals(folder.getFileName().toString());
+    }
+
+    private static long getLastUsed(BasicFileAttributes attributes) {
+        // Access time is not updated on file systems mounted with noatime
+        return Math.max(attributes.lastAccessTime().toMillis(), attributes.lastModifiedTime().toMillis());
+    }
+
+    /**
+     * <p>
+     * Receives files removed by the evictor.
+     * </p>
+     */
+    public interface EvictionListener {
+        /**
+         * <p>
+         * Called after the file was removed.
+         * </p>
+         *
+         * @param file The removed file.
+         */
+        void evicted(Path file);
+    }
+
+    private interface Visitor {
+        void visit(Path file, BasicFileAttributes attributes);
+    }
+
+    private static class Entry {
+        private final Path _path;
+        private final long _size;
+        private final long _lastUsed;
+
+        private Entry(Path path, long size, long lastUsed) {
+            _path = path;
+            _size = size;
+            _lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * <p>
+     * Files evicted together, used as recently as the most recently used of them
+     * </p>
+     */
+    private static class Unit {
+        private final List<Entry> _entries = new ArrayList<Entry>(2);
+        private long _lastUsed = Long.MIN_VALUE;
+
+        synchronized void add(Entry entry, boolean first) {
+            if (first) {
+                _entries.add(0, entry);
+            } else {
+                _entries.add(entry);
+            }
+            _lastUsed = Math.max(_lastUsed, entry._lastUsed);
+        }
+    }
+
+    /**
+     * <p>
+     * Eviction statistics.
+     * </p>
+     */
+    public static class Result {
+        private final AtomicLong _files = new AtomicLong();
+        private final AtomicLong _bytes = new AtomicLong();
+
+        /**
+         * <p>
+         * Gets the number of removed files.
+         * </p>
+         */
+        public long getFiles() {
+            return _files.get();
+        }
+
+        /**
+         * <p>
+         * Gets the number of reclaimed bytes.
+         * </p>
+         */
+        public long getBytes() {
+            return _bytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return "removed " + getFiles() + " files, " + getBytes() + " bytes";
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.domain.cache.CachedPageDescription;
+
+/**
+ * <p>
+ * Parts of cache file names shared by cache handlers.
+ * </p>
+ */
+final class CacheFileNames {
+    static final String HTML_EXTENSION = ".html";
+
+    private CacheFileNames() {
+    }
+
+    /**
+     * <p>
+     * Indicates whether the page is rendered as html or as image.
+     * </p>
+     *
+     * @param cachedPageDescription The cached page description.
+     * @return true for html page
+     */
+    static boolean isHtmlPage(CachedPageDescription cachedPageDescription) {
+        final String extension = normalizeExtension(cachedPageDescription.getOutputExtension());
+        return extension.isEmpty() || HTML_EXTENSION.equalsIgnoreCase(extension) || ".htm".equalsIgnoreCase(extension);
+    }
+
+    /**
+     * <p>
+     * Gets the extension with leading dot e.g. .png
+     * </p>
+     *
+     * @param extension The extension with or without leading dot.
+     * @return The extension with leading dot or empty string.
+     */
+    static String normalizeExtension(String extension) {
+        if (extension == null || extension.isEmpty()) {
+            return "";
+        }
+        return extension.charAt(0) == '.' ? extension : "." + extension;
+    }
+
+    /**
+     * <p>
+     * Gets the quality option suffix eg. -90
+     * </p>
+     *
+     * @param cachedPageDescription The cached page description.
+     * @return The quality suffix, empty for default quality and formats other than jpeg.
+     */
+    static String getQualitySuffix(CachedPageDescription cachedPageDescription) {
+        return cachedPageDescription.getJpegQuality() != 90 && ".jpg".equals(normalizeExtension(cachedPageDescription.getOutputExtension()))
+                ? "-" + cachedPageDescription.getJpegQuality() : "";
+    }
+}
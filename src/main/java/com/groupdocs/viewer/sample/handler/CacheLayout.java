@@ -0,0 +1,19 @@
+package com.groupdocs.viewer.sample.handler;
+
+/**
+ * <p>
+ * Defines where cached files of a document are placed inside the cache folder.
+ * </p>
+ */
+public interface CacheLayout {
+    /**
+     * <p>
+     * Gets the folder which holds all cached files of the document.
+     * </p>
+     *
+     * @param guid The file unique identifier, full path for local storage e.g. c:\\storage\\document.txt,
+     *             relative path e.g document.txt, url e.g. http://site.com/document.txt.
+     * @return The document cache folder path.
+     */
+    String getDocumentFolder(String guid);
+}
@@ -0,0 +1,125 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.storage.FileInfo;
+import com.groupdocs.viewer.storage.IFileInfo;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Snapshot of cache files stored under a document cache folder, obtained with a single listing
+ * of the folder. Presence and modification date of the document's cache files are answered
+ * from the snapshot instead of a storage round-trip per file.
+ * </p>
+ */
+public class CacheListing {
+    private final String _prefix;
+    private final Map<String, IFileInfo> _files = new ConcurrentHashMap<String, IFileInfo>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheListing} class.
+     * </p>
+     *
+     * @param folder The listed folder path.
+     */
+    public CacheListing(String folder) {
+        if (folder == null)
+            throw new IllegalArgumentException("folder");
+        _prefix = normalize(folder) + "/";
+    }
+
+    /**
+     * <p>
+     * Normalizes path so paths built by cache handlers and paths returned by storages can be compared.
+     * </p>
+     *
+     * @param path The path.
+     * @return The path with forward slashes and without duplicate or trailing slashes
+     */
+    public static String normalize(String path) {
+        String result = path.replace('\\', '/');
+        while (result.contains("//")) {
+            result = result.replace("//", "/");
+        }
+        if (result.length() > 1 && result.endsWith("/")) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Indicates whether the path lies under the listed folder, so the listing is authoritative for it.
+     * </p>
+     *
+     * @param path The file path.
+     * @return true if the listing covers the path
+     */
+    public boolean covers(String path) {
+        return path != null && normalize(path).startsWith(_prefix);
+    }
+
+    /**
+     * <p>
+     * Indicates whether the file was listed.
+     * </p>
+     *
+     * @param path The file path.
+     * @return true if the file exists
+     */
+    public boolean contains(String path) {
+        return _files.containsKey(normalize(path));
+    }
+
+    /**
+     * <p>
+     * Gets the last modification date of the listed file.
+     * </p>
+     *
+     * @param path The file path.
+     * @return the date or null if the file was not listed
+     */
+    public Date getLastModified(String path) {
+        final IFileInfo fileInfo = _files.get(normalize(path));
+        return fileInfo == null ? null : fileInfo.getLastModified();
+    }
+
+    /**
+     * <p>
+     * Adds listed file.
+     * </p>
+     *
+     * @param path     The file path.
+     * @param fileInfo The file info.
+     */
+    public void add(String path, IFileInfo fileInfo) {
+        _files.put(normalize(path), fileInfo);
+    }
+
+    /**
+     * <p>
+     * Adds file saved after the listing was made.
+     * </p>
+     *
+     * @param path The file path.
+     */
+    public void added(String path) {
+        IFileInfo fileInfo = new FileInfo();
+        fileInfo.setPath(path);
+        fileInfo.setLastModified(new Date());
+        fileInfo.setDirectory(false);
+        add(path, fileInfo);
+    }
+
+    /**
+     * <p>
+     * Gets the number of listed files.
+     * </p>
+     */
+    public int size() {
+        return _files.size();
+    }
+}
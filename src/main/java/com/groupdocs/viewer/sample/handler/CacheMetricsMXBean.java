@@ -0,0 +1,40 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * JMX view of cache metrics recorded by {@link MetricsCacheDataHandler}. Maps are keyed by
+ * cache file type name, e.g. {@code Page}; latencies are in microseconds.
+ * </p>
+ */
+public interface CacheMetricsMXBean {
+    /**
+     * <p>
+     * Gets the share of reads and existence checks which found the file.
+     * </p>
+     */
+    double getHitRatio();
+
+    Map<String, Long> getHits();
+
+    Map<String, Long> getMisses();
+
+    Map<String, Long> getBytesRead();
+
+    Map<String, Long> getBytesWritten();
+
+    /**
+     * <p>
+     * Gets latency percentiles keyed by operation, cache file type and percentile, e.g. {@code read.Page.p99}.
+     * </p>
+     */
+    Map<String, Long> getLatencyPercentiles();
+
+    /**
+     * <p>
+     * Removes all recorded values.
+     * </p>
+     */
+    void reset();
+}
@@ -0,0 +1,22 @@
+package com.groupdocs.viewer.sample.handler;
+
+/**
+ * <p>
+ * Receives cache operations recorded by {@link MetricsCacheDataHandler}, e.g. to forward them
+ * to a metrics system. Implementations are called on request threads and should not block.
+ * </p>
+ */
+public interface CacheMetricsSink {
+    /**
+     * <p>
+     * Records the cache operation.
+     * </p>
+     *
+     * @param operation     The operation: {@code exists}, {@code read} or {@code write}.
+     * @param cacheFileType The cache file type name, e.g. {@code Page}.
+     * @param hit           Whether the file was found, always true for writes.
+     * @param durationNanos The operation duration in nanoseconds.
+     * @param bytes         The number of bytes read or written, 0 for existence checks.
+     */
+    void record(String operation, String cacheFileType, boolean hit, long durationNanos, long bytes);
+}
@@ -0,0 +1,552 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Append-only container of cache entries of a single document. Each record holds the entry key,
+ * modification time and content; the offset index of the latest record of each key is kept in memory
+ * and rebuilt from record headers when the container is opened. Entries are read with positional
+ * reads, so readers do not block each other or appends, and large entries are memory mapped.
+ * Once replaced entries take more space than the live ones, live records are copied to a new file
+ * which replaces the container, streams opened before keep reading the previous file.
+ * </p>
+ * <p>
+ * Record layout: {@code int magic, int keyLength, long timestamp, long contentLength, key bytes (UTF-8), content}.
+ * The container is written by a single process; a record cut off by a crash is truncated on open.
+ * </p>
+ */
+public class CachePack implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(CachePack.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int RECORD_MAGIC = 0x50434b31;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8;
+    private static final int MAX_KEY_LENGTH = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final String COMPACTION_FILE_SUFFIX = ".compact.tmp";
+
+    /**
+     * <p>
+     * The container is compacted when replaced entries take at least this many bytes and more than live entries
+     * </p>
+     */
+    private static final long COMPACTION_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * <p>
+     * Entries of this size and bigger are memory mapped instead of read with positional reads
+     * </p>
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+
+    private final File _file;
+    private final Map<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private FileChannel _channel;
+    private long _end;
+    private long _liveBytes;
+    private int _readers;
+
+    /**
+     * <p>
+     * Channels of files replaced by compaction with the number of streams still reading them
+     * </p>
+     */
+    private final Map<FileChannel, Integer> _retiredChannels = new HashMap<FileChannel, Integer>();
+    private boolean _closed;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CachePack} class, the container file is indexed
+     * if it exists and created with the first appended entry otherwise.
+     * </p>
+     *
+     * @param file The container file.
+     * @throws IOException when existing container can not be read
+     */
+    public CachePack(File file) throws IOException {
+        if (file == null)
+            throw new IllegalArgumentException("file");
+
+        _file = file;
+        if (file.exists()) {
+            _channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                index();
+            } catch (IOException e) {
+                _channel.close();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the container file.
+     * </p>
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * <p>
+     * Indicates whether the entry exists.
+     * </p>
+     *
+     * @param key The entry key.
+     * @return true if the entry exists
+     */
+    public boolean contains(String key) {
+        return _entries.containsKey(key);
+    }
+
+    /**
+     * <p>
+     * Gets the time the entry was appended.
+     * </p>
+     *
+     * @param key The entry key.
+     * @return The date or null if the entry does not exist
+     */
+    public Date getLastModified(String key) {
+        final Entry entry = _entries.get(key);
+        return entry == null ? null : new Date(entry._timestamp);
+    }
+
+    /**
+     * <p>
+     * Gets keys of entries starting with the prefix.
+     * </p>
+     *
+     * @param prefix The key prefix.
+     * @return The matching keys
+     */
+    public List<String> getKeys(String prefix) {
+        List<String> result = new ArrayList<String>();
+        for (String key : _entries.keySet()) {
+            if (key.startsWith(prefix)) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Gets the number of entries.
+     * </p>
+     */
+    public int getEntryCount() {
+        return _entries.size();
+    }
+
+    /**
+     * <p>
+     * Gets the container size in bytes, including content of replaced entries.
+     * </p>
+     */
+    public synchronized long getSize() {
+        return _end;
+    }
+
+    /**
+     * <p>
+     * Opens stream with the entry content. Positional reads keep the container open until the stream is closed.
+     * </p>
+     *
+     * @param key The entry key.
+     * @return The stream or null if the entry does not exist
+     * @throws IOException when the container is closed or the entry can not be mapped
+     */
+    public InputStream openInputStream(String key) throws IOException {
+        final Entry entry;
+        final FileChannel channel;
+        // Entry offsets change with compaction, so the entry is looked up with the channel it belongs to
+        synchronized (this) {
+            entry = _entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            channel = acquire();
+        }
+
+        if (entry._length >= MAP_THRESHOLD) {
+            try {
+                // Mapping stays valid after the channel is closed
+                return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, entry._offset, entry._length));
+            } finally {
+                release(channel);
+            }
+        }
+        return new EntryInputStream(channel, entry._offset, entry._length);
+    }
+
+    /**
+     * <p>
+     * Appends the entry, replacing previous entry with the same key.
+     * </p>
+     *
+     * @param key     The entry key.
+     * @param content The entry content, not closed by this method.
+     * @param length  The content length.
+     * @throws IOException when the entry can not be written, the container is left unchanged
+     */
+    public synchronized void append(String key, InputStream content, long length) throws IOException {
+        if (_closed)
+            throw new IOException("Cache pack is closed: " + _file);
+
+        final byte[] keyBytes = key.getBytes(UTF_8);
+        if (keyBytes.length > MAX_KEY_LENGTH)
+            throw new IllegalArgumentException("key");
+
+        if (_channel == null) {
+            final File parent = _file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            _channel = FileChannel.open(_file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            _end = _channel.size();
+        }
+
+        final long start = _end;
+        final long timestamp = System.currentTimeMillis();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + keyBytes.length);
+            header.putInt(RECORD_MAGIC).putInt(keyBytes.length).putLong(timestamp).putLong(length).put(keyBytes);
+            header.flip();
+            long position = writeFully(header, start);
+
+            final byte[] buffer = new byte[(int) Math.min(COPY_BUFFER_SIZE, Math.max(1, length))];
+            long remaining = length;
+            while (remaining > 0) {
+                final int read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Content is shorter than " + length + " bytes");
+                }
+                position = writeFully(ByteBuffer.wrap(buffer, 0, read), position);
+                remaining -= read;
+            }
+            _end = position;
+        } catch (IOException e) {
+            _channel.truncate(start);
+            throw e;
+        }
+        put(key, new Entry(start + RECORD_HEADER_SIZE + keyBytes.length, length, timestamp), keyBytes.length);
+
+        final long replacedBytes = _end - _liveBytes;
+        if (replacedBytes >= COMPACTION_THRESHOLD && replacedBytes > _liveBytes) {
+            try {
+                compact();
+            } catch (IOException e) {
+                LOGGER.warning("Can't compact cache pack " + _file + ": " + e);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Copies records of live entries to a new file which replaces the container. Streams opened
+     * before keep the previous file open until they are closed.
+     * </p>
+     *
+     * @throws IOException when the new file can not be written, the container is left unchanged
+     */
+    private void compact() throws IOException {
+        final File compactedFile = new File(_file.getPath() + COMPACTION_FILE_SUFFIX);
+        final FileChannel compacted = FileChannel.open(compactedFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final Map<String, Entry> entries = new HashMap<String, Entry>();
+        long position = 0;
+        try {
+            for (Map.Entry<String, Entry> item : _entries.entrySet()) {
+                final Entry entry = item.getValue();
+                final long headerSize = RECORD_HEADER_SIZE + item.getKey().getBytes(UTF_8).length;
+                final long recordSize = headerSize + entry._length;
+                long copied = 0;
+                while (copied < recordSize) {
+                    copied += _channel.transferTo(entry._offset - headerSize + copied, recordSize - copied, compacted);
+                }
+                entries.put(item.getKey(), new Entry(position + headerSize, entry._length, entry._timestamp));
+                position += recordSize;
+            }
+            try {
+                Files.move(compactedFile.toPath(), _file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(compactedFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            compacted.close();
+            compactedFile.delete();
+            throw e;
+        }
+
+        final long previousSize = _end;
+        if (_readers > 0) {
+            _retiredChannels.put(_channel, _readers);
+        } else {
+            _channel.close();
+        }
+        _channel = compacted;
+        _readers = 0;
+        _end = position;
+        _liveBytes = position;
+        _entries.putAll(entries);
+        LOGGER.fine("Compacted cache pack " + _file + " from " + previousSize + " to " + position + " bytes");
+    }
+
+    /**
+     * <p>
+     * Closes the container, the file is released once all open entry streams are closed.
+     * </p>
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (_closed) {
+            return;
+        }
+        _closed = true;
+        if (_readers == 0 && _channel != null) {
+            _channel.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Indicates whether the container was closed, entries can not be appended to it anymore.
+     * </p>
+     */
+    public synchronized boolean isClosed() {
+        return _closed;
+    }
+
+    /**
+     * <p>
+     * Closes and deletes the container, removing all entries of the document at once.
+     * </p>
+     *
+     * @return true if the container file was deleted or did not exist
+     */
+    public boolean delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            LOGGER.warning("Can't close cache pack " + _file + ": " + e);
+        }
+        _entries.clear();
+        return !_file.exists() || _file.delete();
+    }
+
+    private synchronized FileChannel acquire() throws IOException {
+        if (_closed || _channel == null)
+            throw new IOException("Cache pack is closed: " + _file);
+        _readers++;
+        return _channel;
+    }
+
+    private synchronized void release(FileChannel channel) {
+        final Integer retiredReaders = _retiredChannels.get(channel);
+        if (retiredReaders != null) {
+            if (retiredReaders > 1) {
+                _retiredChannels.put(channel, retiredReaders - 1);
+                return;
+            }
+            _retiredChannels.remove(channel);
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.warning("Can't close cache pack " + _file + ": " + e);
+            }
+            return;
+        }
+
+        _readers--;
+        if (_closed && _readers == 0 && _channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException e) {
+                LOGGER.warning("Can't close cache pack " + _file + ": " + e);
+            }
+        }
+    }
+
+    private long writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += _channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private boolean readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            final int read = _channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Builds the offset index from record headers, content is skipped.
+     * </p>
+     */
+    private void index() throws IOException {
+        final long size = _channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        long position = 0;
+        while (position < size) {
+            header.clear();
+            if (!readFully(header, position)) {
+                break;
+            }
+            header.flip();
+            final int magic = header.getInt();
+            final int keyLength = header.getInt();
+            final long timestamp = header.getLong();
+            final long length = header.getLong();
+            final long contentOffset = position + RECORD_HEADER_SIZE + keyLength;
+            if (magic != RECORD_MAGIC || keyLength < 0 || keyLength > MAX_KEY_LENGTH || length < 0 || contentOffset + length > size) {
+                break;
+            }
+
+            final ByteBuffer key = ByteBuffer.allocate(keyLength);
+            if (!readFully(key, position + RECORD_HEADER_SIZE)) {
+                break;
+            }
+            put(new String(key.array(), UTF_8), new Entry(contentOffset, length, timestamp), keyLength);
+            position = contentOffset + length;
+        }
+
+        if (position < size) {
+            LOGGER.warning("Truncating damaged cache pack " + _file + " at " + position);
+            _channel.truncate(position);
+        }
+        _end = position;
+    }
+
+    /**
+     * <p>
+     * Indexes the latest record of the entry and accounts the bytes of the record it replaces as dead.
+     * </p>
+     */
+    private void put(String key, Entry entry, int keyLength) {
+        final Entry previous = _entries.put(key, entry);
+        _liveBytes += RECORD_HEADER_SIZE + keyLength + entry._length;
+        if (previous != null) {
+            _liveBytes -= RECORD_HEADER_SIZE + keyLength + previous._length;
+        }
+    }
+
+    /**
+     * <p>
+     * Location of the latest record of an entry
+     * </p>
+     */
+    private static class Entry {
+        private final long _offset;
+        private final long _length;
+        private final long _timestamp;
+
+        Entry(long offset, long length, long timestamp) {
+            _offset = offset;
+            _length = length;
+            _timestamp = timestamp;
+        }
+    }
+
+    /**
+     * <p>
+     * Stream reading entry content with positional reads
+     * </p>
+     */
+    private class EntryInputStream extends InputStream {
+        private final FileChannel _source;
+        private final long _limit;
+        private long _position;
+        private long _mark;
+        private boolean _released;
+
+        EntryInputStream(FileChannel source, long offset, long length) {
+            _source = source;
+            _position = offset;
+            _mark = offset;
+            _limit = offset + length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_released)
+                throw new IOException("Stream is closed");
+            if (len == 0) {
+                return 0;
+            }
+            if (_position >= _limit) {
+                return -1;
+            }
+
+            final int read = _source.read(ByteBuffer.wrap(b, off, (int) Math.min(len, _limit - _position)), _position);
+            if (read < 0) {
+                return -1;
+            }
+            _position += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) {
+            final long skipped = Math.max(0, Math.min(n, _limit - _position));
+            _position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, _limit - _position);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            _mark = _position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            _position = _mark;
+        }
+
+        @Override
+        public void close() {
+            if (!_released) {
+                _released = true;
+                release(_source);
+            }
+        }
+    }
+}
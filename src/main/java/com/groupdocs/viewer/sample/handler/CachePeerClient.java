@@ -0,0 +1,459 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Client of a {@link CachePeerServer} keeping a pool of open connections. When a connection fails,
+ * the peer is considered unavailable for the retry delay, so callers fail over without waiting for timeouts.
+ * </p>
+ */
+public class CachePeerClient implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_IDLE_CONNECTIONS = 16;
+
+    private final String _node;
+    private final InetSocketAddress _address;
+    private final int _timeout;
+    private final long _retryDelay;
+    private final int _maxIdleConnections;
+    private final Queue<Connection> _idleConnections = new ConcurrentLinkedQueue<Connection>();
+    private final AtomicInteger _idleCount = new AtomicInteger();
+    private volatile long _retryAt;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CachePeerClient} class.
+     * </p>
+     *
+     * @param node       The peer node in {@code host:port} form.
+     * @param timeout    Connect and read timeout in milliseconds.
+     * @param retryDelay Time in milliseconds the peer is not used after a failure.
+     */
+    public CachePeerClient(String node, int timeout, long retryDelay) {
+        if (node == null)
+            throw new IllegalArgumentException("node");
+        if (timeout < 0)
+            throw new IllegalArgumentException("timeout");
+        if (retryDelay < 0)
+            throw new IllegalArgumentException("retryDelay");
+
+        final int separator = node.lastIndexOf(':');
+        if (separator <= 0)
+            throw new IllegalArgumentException("node");
+        _node = node;
+        _address = InetSocketAddress.createUnresolved(node.substring(0, separator), Integer.parseInt(node.substring(separator + 1)));
+        _timeout = timeout;
+        _retryDelay = retryDelay;
+        _maxIdleConnections = DEFAULT_MAX_IDLE_CONNECTIONS;
+    }
+
+    public String getNode() {
+        return _node;
+    }
+
+    /**
+     * <p>
+     * Indicates whether the peer can be used, i.e. it did not fail within the retry delay.
+     * </p>
+     */
+    public boolean isAvailable() {
+        return System.currentTimeMillis() >= _retryAt;
+    }
+
+    /**
+     * <p>
+     * Gets the last modification time of the cached file.
+     * </p>
+     *
+     * @param key The cache file path relative to the cache folder.
+     * @return The time or -1 if the file is not cached
+     * @throws IOException when the peer fails
+     */
+    public long getLastModified(String key) throws IOException {
+        final Connection connection = borrow();
+        boolean reusable = false;
+        try {
+            connection.request(CachePeerServer.OP_EXISTS, key);
+            final boolean found = readStatus(connection);
+            final long lastModified = found ? connection._input.readLong() : -1;
+            reusable = true;
+            return lastModified;
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            release(connection, reusable);
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the cached file content, content up to the buffer limit is read at once and the connection
+     * is released immediately, bigger content is streamed and the connection is released when the stream is closed.
+     * </p>
+     *
+     * @param key         The cache file path relative to the cache folder.
+     * @param bufferLimit Maximum size of content read into memory.
+     * @return The content or null if the file is not cached
+     * @throws IOException when the peer fails
+     */
+    public Content get(String key, int bufferLimit) throws IOException {
+        final Connection connection = borrow();
+        boolean reusable = false;
+        try {
+            connection.request(CachePeerServer.OP_GET, key);
+            if (!readStatus(connection)) {
+                reusable = true;
+                return null;
+            }
+            final long lastModified = connection._input.readLong();
+            final long length = connection._input.readLong();
+            if (length <= bufferLimit) {
+                final byte[] bytes = new byte[(int) length];
+                connection._input.readFully(bytes);
+                reusable = true;
+                return new Content(lastModified, length, bytes, null);
+            }
+
+            // The connection is owned by the stream now
+            reusable = true;
+            final InputStream stream = new ContentInputStream(connection, length);
+            return new Content(lastModified, length, null, stream);
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            if (!reusable) {
+                connection.close();
+            } else if (connection._streaming == null) {
+                release(connection, true);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Stores the file content on the peer, the peer saves it with its cache data handler.
+     * </p>
+     *
+     * @param key          The cache file path relative to the cache folder.
+     * @param guid         The document unique identifier the file belongs to.
+     * @param resourceName The html page resource name, null for other files.
+     * @param manifestKey  The resources manifest path of html page relative to the cache folder, null for other files.
+     * @param length       The content length.
+     * @param content      The content.
+     * @return The last modification time of the stored file
+     * @throws IOException when the peer fails
+     */
+    public long put(String key, String guid, String resourceName, String manifestKey, long length, InputStream content) throws IOException {
+        final Connection connection = borrow();
+        boolean reusable = false;
+        try {
+            connection._output.writeByte(CachePeerServer.OP_PUT);
+            connection._output.writeUTF(key);
+            connection._output.writeUTF(guid == null ? "" : guid);
+            connection._output.writeUTF(resourceName == null ? "" : resourceName);
+            connection._output.writeUTF(manifestKey == null ? "" : manifestKey);
+            connection._output.writeLong(length);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+                connection._output.write(buffer, 0, read);
+                remaining -= read;
+            }
+            if (remaining > 0)
+                throw new EOFException("Content ended " + remaining + " bytes early");
+            connection._output.flush();
+            readStatus(connection);
+            final long lastModified = connection._input.readLong();
+            reusable = true;
+            return lastModified;
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            release(connection, reusable);
+        }
+    }
+
+    /**
+     * <p>
+     * Lists names of html page resources cached in the folder.
+     * </p>
+     *
+     * @param folderKey The resources folder path relative to the cache folder.
+     * @return The resource names
+     * @throws IOException when the peer fails
+     */
+    public List<String> list(String folderKey) throws IOException {
+        final Connection connection = borrow();
+        boolean reusable = false;
+        try {
+            connection.request(CachePeerServer.OP_LIST, folderKey);
+            readStatus(connection);
+            final int count = connection._input.readInt();
+            final List<String> names = new ArrayList<String>(count);
+            for (int n = 0; n < count; n++) {
+                names.add(connection._input.readUTF());
+            }
+            reusable = true;
+            return names;
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            release(connection, reusable);
+        }
+    }
+
+    /**
+     * <p>
+     * Clears cache of the document on the peer.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @throws IOException when the peer fails
+     */
+    public void clear(String guid) throws IOException {
+        final Connection connection = borrow();
+        boolean reusable = false;
+        try {
+            connection.request(CachePeerServer.OP_CLEAR, guid);
+            readStatus(connection);
+            reusable = true;
+        } catch (IOException e) {
+            fail(e);
+            throw e;
+        } finally {
+            release(connection, reusable);
+        }
+    }
+
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = _idleConnections.poll()) != null) {
+            _idleCount.decrementAndGet();
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return _node;
+    }
+
+    private Connection borrow() throws IOException {
+        final Connection idle = _idleConnections.poll();
+        if (idle != null) {
+            _idleCount.decrementAndGet();
+            return idle;
+        }
+
+        final Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(_timeout);
+            socket.connect(new InetSocketAddress(_address.getHostString(), _address.getPort()), _timeout);
+            return new Connection(socket);
+        } catch (IOException e) {
+            socket.close();
+            fail(e);
+            throw e;
+        }
+    }
+
+    private void release(Connection connection, boolean reusable) {
+        if (reusable && _idleCount.incrementAndGet() <= _maxIdleConnections) {
+            _idleConnections.offer(connection);
+            return;
+        }
+        if (reusable) {
+            _idleCount.decrementAndGet();
+        }
+        connection.close();
+    }
+
+    /**
+     * <p>
+     * Reads the response status.
+     * </p>
+     *
+     * @return true for found, false for not found
+     * @throws IOException when the peer reported an error, the connection stays usable
+     */
+    private boolean readStatus(Connection connection) throws IOException {
+        final byte status = connection._input.readByte();
+        if (status == CachePeerServer.STATUS_ERROR)
+            throw new PeerException("Cache peer " + _node + " failed: " + connection._input.readUTF());
+        return status == CachePeerServer.STATUS_OK;
+    }
+
+    private void fail(IOException e) {
+        if (!(e instanceof PeerException)) {
+            _retryAt = System.currentTimeMillis() + _retryDelay;
+            close();
+        }
+    }
+
+    /**
+     * <p>
+     * Error reported by the peer, the peer itself is available
+     * </p>
+     */
+    private static class PeerException extends IOException {
+        PeerException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * <p>
+     * Open connection to the peer
+     * </p>
+     */
+    private static class Connection {
+        private final Socket _socket;
+        private final DataInputStream _input;
+        private final DataOutputStream _output;
+        private ContentInputStream _streaming;
+
+        Connection(Socket socket) throws IOException {
+            _socket = socket;
+            _input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            _output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+        }
+
+        void request(byte operation, String key) throws IOException {
+            _output.writeByte(operation);
+            _output.writeUTF(key);
+            _output.flush();
+        }
+
+        void close() {
+            try {
+                _socket.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Cached file content received from the peer
+     * </p>
+     */
+    public static class Content {
+        private final long _lastModified;
+        private final long _length;
+        private final byte[] _bytes;
+        private final InputStream _stream;
+
+        Content(long lastModified, long length, byte[] bytes, InputStream stream) {
+            _lastModified = lastModified;
+            _length = length;
+            _bytes = bytes;
+            _stream = stream;
+        }
+
+        public long getLastModified() {
+            return _lastModified;
+        }
+
+        public long getLength() {
+            return _length;
+        }
+
+        /**
+         * <p>
+         * Gets the content read into memory.
+         * </p>
+         *
+         * @return The bytes or null if the content is streamed
+         */
+        public byte[] getBytes() {
+            return _bytes;
+        }
+
+        /**
+         * <p>
+         * Gets stream with the content, streamed content must be closed to release the connection.
+         * </p>
+         */
+        public InputStream getStream() {
+            return _bytes != null ? new ByteArrayInputStream(_bytes) : _stream;
+        }
+    }
+
+    /**
+     * <p>
+     * Stream reading content directly from the connection, the connection is returned to the pool
+     * when the content was read completely
+     * </p>
+     */
+    private class ContentInputStream extends InputStream {
+        private final Connection _connection;
+        private long _remaining;
+        private boolean _closed;
+
+        ContentInputStream(Connection connection, long length) {
+            _connection = connection;
+            _connection._streaming = this;
+            _remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_closed)
+                throw new IOException("Stream is closed");
+            if (_remaining <= 0) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            try {
+                final int read = _connection._input.read(b, off, (int) Math.min(len, _remaining));
+                if (read < 0)
+                    throw new EOFException("Content ended " + _remaining + " bytes early");
+                _remaining -= read;
+                return read;
+            } catch (IOException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(_connection._input.available(), _remaining);
+        }
+
+        @Override
+        public void close() {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            _connection._streaming = null;
+            // Unread content would be taken as the next response, such connection is dropped
+            release(_connection, _remaining == 0);
+        }
+    }
+}
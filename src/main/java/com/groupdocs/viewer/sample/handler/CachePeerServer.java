@@ -0,0 +1,453 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Serves cache folder of a {@link LocalCacheDataHandler} to peer nodes of {@link DistributedCacheDataHandler}
+ * over a simple binary TCP protocol. Every request is an operation byte followed by a UTF string:
+ * </p>
+ * <ul>
+ * <li>{@code EXISTS key} - status, last modification time</li>
+ * <li>{@code GET key} - status, last modification time, length, content</li>
+ * <li>{@code PUT key guid resourceName manifestKey length content} - status, last modification time;
+ * the file is saved by the cache data handler, so it is indexed and added to the page resources manifest</li>
+ * <li>{@code LIST folder} - status, count, resource names</li>
+ * <li>{@code CLEAR guid} - status, clears cache of the document</li>
+ * </ul>
+ * <p>
+ * Keys are cache file paths relative to the cache folder with {@code /} separators. Connections are kept open
+ * for subsequent requests. Keys and guids which resolve outside of the cache folder are rejected.
+ * </p>
+ * <p>
+ * The protocol has no authentication: any client which can connect may read, overwrite and clear cached files.
+ * The server must be bound to a trusted interface only, i.e. loopback or a private network reachable by the peer
+ * nodes alone; in tests it can be started in-process on an ephemeral port.
+ * </p>
+ */
+public class CachePeerServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(CachePeerServer.class.getName());
+    private static final int DEFAULT_MAX_CONNECTIONS = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    static final byte OP_EXISTS = 1;
+    static final byte OP_GET = 2;
+    static final byte OP_PUT = 3;
+    static final byte OP_LIST = 4;
+    static final byte OP_CLEAR = 5;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_FOUND = 1;
+    static final byte STATUS_ERROR = 2;
+
+    private final LocalCacheDataHandler _cacheDataHandler;
+    private final Path _root;
+    private final ServerSocket _serverSocket;
+    private final ThreadPoolExecutor _executor;
+    private final Thread _acceptThread;
+    private final Set<Socket> _connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final List<ClearListener> _listeners = new CopyOnWriteArrayList<ClearListener>();
+    private volatile boolean _closed;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CachePeerServer} class listening on the loopback interface,
+     * nodes on other hosts need the server to listen on the private network address.
+     * </p>
+     *
+     * @param cacheDataHandler The cache data handler which cache folder is served.
+     * @param port             The port, 0 for an ephemeral port.
+     * @throws IOException when the port can not be bound
+     */
+    public CachePeerServer(LocalCacheDataHandler cacheDataHandler, int port) throws IOException {
+        this(cacheDataHandler, new InetSocketAddress(InetAddress.getLoopbackAddress(), port), DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CachePeerServer} class and starts accepting connections.
+     * </p>
+     *
+     * @param cacheDataHandler The cache data handler which cache folder is served.
+     * @param address          The address to listen on, must be a trusted interface as requests are not authenticated.
+     * @param maxConnections   Maximum number of concurrently served connections, others are refused.
+     * @throws IOException when the address can not be bound
+     */
+    public CachePeerServer(LocalCacheDataHandler cacheDataHandler, InetSocketAddress address, int maxConnections) throws IOException {
+        if (cacheDataHandler == null)
+            throw new IllegalArgumentException("cacheDataHandler");
+        if (address == null)
+            throw new IllegalArgumentException("address");
+        if (maxConnections <= 0)
+            throw new IllegalArgumentException("maxConnections");
+
+        _cacheDataHandler = cacheDataHandler;
+        _root = cacheDataHandler.getCacheRoot().toAbsolutePath().normalize();
+        _executor = new ThreadPoolExecutor(0, maxConnections, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cache-peer-connection");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _serverSocket = new ServerSocket();
+        _serverSocket.setReuseAddress(true);
+        _serverSocket.bind(address);
+
+        _acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "cache-peer-server");
+        _acceptThread.setDaemon(true);
+        _acceptThread.start();
+    }
+
+    /**
+     * <p>
+     * Adds listener notified when cache of a document is cleared by a peer.
+     * </p>
+     *
+     * @param listener The listener, e.g. the {@link DistributedCacheDataHandler} of this node.
+     */
+    public void addClearListener(ClearListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener");
+        _listeners.add(listener);
+    }
+
+    public void removeClearListener(ClearListener listener) {
+        _listeners.remove(listener);
+    }
+
+    public int getPort() {
+        return _serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        _closed = true;
+        _serverSocket.close();
+        for (Socket socket : _connections) {
+            closeQuietly(socket);
+        }
+        _executor.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!_closed) {
+            final Socket socket;
+            try {
+                socket = _serverSocket.accept();
+            } catch (IOException e) {
+                if (!_closed) {
+                    LOGGER.log(Level.WARNING, "Can't accept cache peer connection", e);
+                }
+                continue;
+            }
+
+            try {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.warning("Too many cache peer connections, refused " + socket.getRemoteSocketAddress());
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        _connections.add(socket);
+        try {
+            socket.setTcpNoDelay(true);
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE));
+            int operation;
+            while (!_closed && (operation = input.read()) >= 0) {
+                final String key = input.readUTF();
+                switch (operation) {
+                    case OP_EXISTS:
+                        exists(key, output);
+                        break;
+                    case OP_GET:
+                        get(key, output);
+                        break;
+                    case OP_PUT:
+                        put(key, input, output);
+                        break;
+                    case OP_LIST:
+                        list(key, output);
+                        break;
+                    case OP_CLEAR:
+                        clear(key, output);
+                        break;
+                    default:
+                        // Request boundaries are lost, the connection can not be used anymore
+                        throw new IOException("Unknown cache peer operation " + operation);
+                }
+                output.flush();
+            }
+        } catch (EOFException e) {
+            // Peer closed the connection
+        } catch (SocketException e) {
+            // Connection reset or server closed
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Cache peer connection failed " + socket.getRemoteSocketAddress(), e);
+        } finally {
+            _connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void exists(String key, DataOutputStream output) throws IOException {
+        final File file = resolve(key);
+        if (file == null) {
+            writeError(output, "Invalid key " + key);
+            return;
+        }
+        final long lastModified = file.lastModified();
+        if (lastModified == 0 || !file.isFile()) {
+            output.writeByte(STATUS_NOT_FOUND);
+            return;
+        }
+        output.writeByte(STATUS_OK);
+        output.writeLong(lastModified);
+    }
+
+    private void get(String key, DataOutputStream output) throws IOException {
+        final File file = resolve(key);
+        if (file == null) {
+            writeError(output, "Invalid key " + key);
+            return;
+        }
+
+        final FileInputStream content;
+        try {
+            content = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            output.writeByte(STATUS_NOT_FOUND);
+            return;
+        }
+        try {
+            // Cached files are replaced by rename, the opened file keeps its length
+            final long length = content.getChannel().size();
+            output.writeByte(STATUS_OK);
+            output.writeLong(file.lastModified());
+            output.writeLong(length);
+            copy(content, output, length);
+        } finally {
+            content.close();
+        }
+    }
+
+    private void put(String key, DataInputStream input, DataOutputStream output) throws IOException {
+        final String guid = input.readUTF();
+        final String resourceName = input.readUTF();
+        final String manifestKey = input.readUTF();
+        final long length = input.readLong();
+        final File file = resolve(key);
+        final File manifestFile = manifestKey.isEmpty() ? null : resolve(manifestKey);
+        if (file == null || manifestFile == null && !manifestKey.isEmpty()) {
+            skip(input, length);
+            writeError(output, "Invalid key " + key);
+            return;
+        }
+
+        // Content is received completely before it is saved, so a broken connection does not publish a partial file
+        file.getParentFile().mkdirs();
+        final File tempFile = new File(file.getPath() + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+        try {
+            final OutputStream content = new FileOutputStream(tempFile);
+            try {
+                copy(input, content, length);
+            } finally {
+                content.close();
+            }
+
+            final OutputStream cached = _cacheDataHandler.getOutputSaveStream(file.getPath(), guid.isEmpty() ? null : guid,
+                    resourceName.isEmpty() ? null : resourceName, manifestFile == null ? null : manifestFile.getPath());
+            if (cached == null) {
+                writeError(output, "Can't save " + key);
+                return;
+            }
+            final InputStream received = new FileInputStream(tempFile);
+            try {
+                try {
+                    copy(received, cached, length);
+                } finally {
+                    cached.close();
+                }
+            } finally {
+                received.close();
+            }
+        } finally {
+            if (tempFile.exists() && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+        }
+        output.writeByte(STATUS_OK);
+        output.writeLong(file.lastModified());
+    }
+
+    private void list(String key, DataOutputStream output) throws IOException {
+        final File folder = resolve(key);
+        if (folder == null) {
+            writeError(output, "Invalid key " + key);
+            return;
+        }
+
+        final List<String> names = new ArrayList<String>();
+        final File manifestFile = new File(PageResourceManifest.getManifestPath(folder.getPath()));
+        if (manifestFile.isFile()) {
+            final InputStream manifestInput = new BufferedInputStream(new FileInputStream(manifestFile));
+            try {
+                for (PageResourceManifest.Entry entry : PageResourceManifest.read(manifestInput).getEntries()) {
+                    names.add(entry.getName());
+                }
+            } finally {
+                manifestInput.close();
+            }
+        } else {
+            final File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.isFile() && !file.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                        names.add(file.getName());
+                    }
+                }
+            }
+        }
+
+        output.writeByte(STATUS_OK);
+        output.writeInt(names.size());
+        for (String name : names) {
+            output.writeUTF(name);
+        }
+    }
+
+    private void clear(String guid, DataOutputStream output) throws IOException {
+        if (!isInsideRoot(_cacheDataHandler.getDocumentFolder(guid))) {
+            writeError(output, "Invalid guid " + guid);
+            return;
+        }
+        try {
+            _cacheDataHandler.clearCache(guid);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Can't clear cache of " + guid, e);
+            writeError(output, String.valueOf(e));
+            return;
+        }
+        for (ClearListener listener : _listeners) {
+            try {
+                listener.onCleared(guid);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Cache clear listener failed for " + guid, e);
+            }
+        }
+        output.writeByte(STATUS_OK);
+    }
+
+    /**
+     * <p>
+     * Resolves the key to a file inside the cache folder.
+     * </p>
+     *
+     * @param key The cache file path relative to the cache folder.
+     * @return The file or null if the key points outside of the cache folder
+     */
+    private File resolve(String key) {
+        if (key.isEmpty()) {
+            return null;
+        }
+        final Path path = _root.resolve(key.replace('/', File.separatorChar)).normalize();
+        if (!path.startsWith(_root) || path.equals(_root)) {
+            return null;
+        }
+        return path.toFile();
+    }
+
+    /**
+     * <p>
+     * Indicates whether the document folder is inside the cache folder, guids like {@code ../..}
+     * would make the layout place it elsewhere.
+     * </p>
+     */
+    private boolean isInsideRoot(String documentFolder) {
+        if (documentFolder == null) {
+            return false;
+        }
+        try {
+            final Path path = Paths.get(documentFolder).toAbsolutePath().normalize();
+            return path.startsWith(_root) && !path.equals(_root);
+        } catch (InvalidPathException e) {
+            return false;
+        }
+    }
+
+    private static void writeError(DataOutputStream output, String message) throws IOException {
+        output.writeByte(STATUS_ERROR);
+        output.writeUTF(message);
+    }
+
+    private static void copy(InputStream input, OutputStream output, long length) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0)
+                throw new EOFException("Content ended " + remaining + " bytes early");
+            output.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
+    private static void skip(DataInputStream input, long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            final long skipped = input.skip(remaining);
+            if (skipped <= 0) {
+                if (input.read() < 0)
+                    throw new EOFException();
+                remaining--;
+            } else {
+                remaining -= skipped;
+            }
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing to do
+        }
+    }
+
+    /**
+     * <p>
+     * Receives documents which cache was cleared by a peer node.
+     * </p>
+     */
+    public interface ClearListener {
+        void onCleared(String guid);
+    }
+}
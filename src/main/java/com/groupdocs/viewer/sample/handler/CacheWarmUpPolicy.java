@@ -0,0 +1,20 @@
+package com.groupdocs.viewer.sample.handler;
+
+/**
+ * <p>
+ * Defines which pages of a document are pre-rendered by {@link CacheWarmUpService} and in which order.
+ * </p>
+ */
+public interface CacheWarmUpPolicy {
+    /**
+     * <p>
+     * Gets the render priority of the page, pages with lower priority are rendered first.
+     * </p>
+     *
+     * @param guid       The file unique identifier.
+     * @param pageNumber The page number, starting with 1.
+     * @param pageCount  The number of pages of the document.
+     * @return The priority, negative value skips the page
+     */
+    int getPriority(String guid, int pageNumber, int pageCount);
+}
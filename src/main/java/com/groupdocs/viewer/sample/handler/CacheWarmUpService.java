@@ -0,0 +1,447 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.converter.options.HtmlOptions;
+import com.groupdocs.viewer.converter.options.ImageOptions;
+import com.groupdocs.viewer.domain.containers.DocumentInfoContainer;
+import com.groupdocs.viewer.domain.image.PageImage;
+import com.groupdocs.viewer.handler.ViewerHtmlHandler;
+import com.groupdocs.viewer.handler.ViewerImageHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Pre-renders pages of newly stored documents into the cache, so the first viewer of a document does not
+ * wait for conversion. Pages are rendered one by one on a bounded worker pool in the order given by
+ * {@link CacheWarmUpPolicy}, e.g. first pages of all documents before the rest of their pages.
+ * Renders go through a {@link CoalescingViewerHandler}; serving live requests through the same
+ * instance (see {@link #getRenderer()}) lets them share pages being pre-rendered.
+ * </p>
+ * <p>
+ * The number of documents being warmed up is bounded, {@link #warmUp(String)} blocks
+ * when the limit is reached.
+ * </p>
+ */
+public class CacheWarmUpService {
+    private static final Logger LOGGER = Logger.getLogger(CacheWarmUpService.class.getName());
+
+    private final ViewerHtmlHandler _htmlHandler;
+    private final ViewerImageHandler _imageHandler;
+    private final CoalescingViewerHandler _renderer;
+    private final CacheWarmUpPolicy _policy;
+    private final ThreadPoolExecutor _executor;
+
+    /**
+     * <p>
+     * Permits of documents which can be warmed up at once
+     * </p>
+     */
+    private final Semaphore _documentPermits;
+
+    /**
+     * <p>
+     * Documents being warmed up, a document is not queued twice
+     * </p>
+     */
+    private final Set<String> _pendingDocuments = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong _sequence = new AtomicLong();
+    private final AtomicLong _renderedPages = new AtomicLong();
+    private final AtomicLong _failedPages = new AtomicLong();
+    private Thread _watcher;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CacheWarmUpService} class.
+     * </p>
+     *
+     * @param htmlHandler         The html handler, can be null if html pages are not pre-rendered.
+     * @param imageHandler        The image handler, can be null if image pages are not pre-rendered.
+     * @param threads             Number of render threads.
+     * @param maxPendingDocuments Maximum number of documents being warmed up at once.
+     * @param policy              The warm-up policy.
+     */
+    public CacheWarmUpService(ViewerHtmlHandler htmlHandler, ViewerImageHandler imageHandler, int threads, int maxPendingDocuments, CacheWarmUpPolicy policy) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads");
+        if (maxPendingDocuments <= 0)
+            throw new IllegalArgumentException("maxPendingDocuments");
+        if (policy == null)
+            throw new IllegalArgumentException("policy");
+
+        _htmlHandler = htmlHandler;
+        _imageHandler = imageHandler;
+        _renderer = new CoalescingViewerHandler(htmlHandler, imageHandler);
+        _policy = policy;
+        _documentPermits = new Semaphore(maxPendingDocuments);
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        _executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "cache-warm-up-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * <p>
+     * Gets the handler pre-rendering pages, use it for live requests so they share renders in progress.
+     * </p>
+     */
+    public CoalescingViewerHandler getRenderer() {
+        return _renderer;
+    }
+
+    /**
+     * <p>
+     * Queues pages of the document for pre-rendering, waits while too many documents are being warmed up.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public void warmUp(String guid) throws InterruptedException {
+        if (guid == null)
+            throw new IllegalArgumentException("guid");
+        if (!_pendingDocuments.add(guid)) {
+            return;
+        }
+        try {
+            _documentPermits.acquire();
+        } catch (InterruptedException e) {
+            _pendingDocuments.remove(guid);
+            throw e;
+        }
+        schedule(guid);
+    }
+
+    /**
+     * <p>
+     * Queues pages of the document for pre-rendering unless too many documents are being warmed up
+     * for the specified time.
+     * </p>
+     *
+     * @param guid    The file unique identifier.
+     * @param timeout Maximum time to wait in milliseconds.
+     * @return true if the document was queued or is being warmed up already
+     * @throws InterruptedException when interrupted while waiting
+     */
+    public boolean tryWarmUp(String guid, long timeout) throws InterruptedException {
+        if (guid == null)
+            throw new IllegalArgumentException("guid");
+        if (!_pendingDocuments.add(guid)) {
+            return true;
+        }
+        boolean acquired = false;
+        try {
+            acquired = _documentPermits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!acquired) {
+                _pendingDocuments.remove(guid);
+            }
+        }
+        if (acquired) {
+            schedule(guid);
+        }
+        return acquired;
+    }
+
+    /**
+     * <p>
+     * Watches the storage folder and warms up documents created or modified in it.
+     * Documents are identified by their path relative to the folder.
+     * </p>
+     *
+     * @param storagePath The storage folder, e.g. {@code ViewerConfig.getStoragePath()}.
+     * @throws IOException when the folder can not be watched
+     */
+    public synchronized void startWatching(final Path storagePath) throws IOException {
+        if (storagePath == null)
+            throw new IllegalArgumentException("storagePath");
+        stopWatching();
+
+        final WatchService watchService = storagePath.getFileSystem().newWatchService();
+        storagePath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+
+        _watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        final WatchKey key = watchService.take();
+                        for (WatchEvent<?> event : key.pollEvents()) {
+                            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                                continue;
+                            }
+                            final Path file = storagePath.resolve((Path) event.context());
+                            if (Files.isRegularFile(file)) {
+                                // Blocks while the pool is saturated, so the watcher is throttled as well
+                                warmUp(storagePath.relativize(file).toString());
+                            }
+                        }
+                        if (!key.reset()) {
+                            LOGGER.warning("Storage folder is no longer watched: " + storagePath);
+                            break;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ClosedWatchServiceException e) {
+                    // Stopped
+                } finally {
+                    try {
+                        watchService.close();
+                    } catch (IOException e) {
+                        LOGGER.log(Level.FINE, "Can't close watch service", e);
+                    }
+                }
+            }
+        }, "cache-warm-up-watcher");
+        _watcher.setDaemon(true);
+        _watcher.start();
+    }
+
+    /**
+     * <p>
+     * Stops watching the storage folder.
+     * </p>
+     */
+    public synchronized void stopWatching() {
+        if (_watcher != null) {
+            _watcher.interrupt();
+            _watcher = null;
+        }
+    }
+
+    /**
+     * <p>
+     * Stops watching and rendering, queued pages are discarded.
+     * </p>
+     */
+    public void shutdown() {
+        stopWatching();
+        _executor.shutdownNow();
+    }
+
+    /**
+     * <p>
+     * Gets the number of pages waiting for render.
+     * </p>
+     */
+    public int getQueuedPages() {
+        return _executor.getQueue().size();
+    }
+
+    /**
+     * <p>
+     * Gets the number of documents being warmed up.
+     * </p>
+     */
+    public int getPendingDocuments() {
+        return _pendingDocuments.size();
+    }
+
+    public long getRenderedPages() {
+        return _renderedPages.get();
+    }
+
+    public long getFailedPages() {
+        return _failedPages.get();
+    }
+
+    /**
+     * <p>
+     * Creates html options used to pre-render the page. Override to match options of live requests,
+     * pages are cached per options.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The html options
+     */
+    protected HtmlOptions createHtmlOptions(String guid) {
+        return new HtmlOptions();
+    }
+
+    /**
+     * <p>
+     * Creates image options used to pre-render the page. Override to match options of live requests,
+     * pages are cached per options.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The image options
+     */
+    protected ImageOptions createImageOptions(String guid) {
+        return new ImageOptions();
+    }
+
+    /**
+     * <p>
+     * Queues task reading the page count, which queues the pages in policy order.
+     * </p>
+     */
+    private void schedule(final String guid) {
+        try {
+            _executor.execute(new PrioritizedTask(Integer.MIN_VALUE, _sequence.incrementAndGet()) {
+                @Override
+                public void run() {
+                    schedulePages(guid);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            finish(guid);
+        }
+    }
+
+    private void schedulePages(final String guid) {
+        final int pageCount;
+        try {
+            final DocumentInfoContainer documentInfo = _htmlHandler != null ? _htmlHandler.getDocumentInfo(guid) : _imageHandler.getDocumentInfo(guid);
+            pageCount = documentInfo.getPages().size();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Can't warm up " + guid, e);
+            finish(guid);
+            return;
+        }
+
+        // The document is finished when its last page is rendered
+        final AtomicInteger remainingPages = new AtomicInteger(1);
+        for (int pageNumber = 1; pageNumber <= pageCount; pageNumber++) {
+            final int priority = _policy.getPriority(guid, pageNumber, pageCount);
+            if (priority < 0) {
+                continue;
+            }
+            final int page = pageNumber;
+            remainingPages.incrementAndGet();
+            try {
+                _executor.execute(new PrioritizedTask(priority, _sequence.incrementAndGet()) {
+                    @Override
+                    public void run() {
+                        try {
+                            renderPage(guid, page);
+                        } finally {
+                            if (remainingPages.decrementAndGet() == 0) {
+                                finish(guid);
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                remainingPages.decrementAndGet();
+                break;
+            }
+        }
+        if (remainingPages.decrementAndGet() == 0) {
+            finish(guid);
+        }
+    }
+
+    private void renderPage(String guid, int pageNumber) {
+        try {
+            if (_htmlHandler != null) {
+                final HtmlOptions options = createHtmlOptions(guid);
+                options.setPageNumber(pageNumber);
+                options.setCountPagesToRender(1);
+                options.setPageNumbersToRender(Arrays.asList(pageNumber));
+                _renderer.getPages(guid, options);
+            }
+            if (_imageHandler != null) {
+                final ImageOptions options = createImageOptions(guid);
+                options.setPageNumber(pageNumber);
+                options.setCountPagesToRender(1);
+                options.setPageNumbersToRender(Arrays.asList(pageNumber));
+                final List<PageImage> pages = _renderer.getPages(guid, options);
+                for (PageImage page : pages) {
+                    final InputStream stream = page.getStream();
+                    if (stream != null) {
+                        stream.close();
+                    }
+                }
+            }
+            _renderedPages.incrementAndGet();
+        } catch (Exception e) {
+            _failedPages.incrementAndGet();
+            LOGGER.log(Level.WARNING, "Can't warm up page " + pageNumber + " of " + guid, e);
+        }
+    }
+
+    private void finish(String guid) {
+        _pendingDocuments.remove(guid);
+        _documentPermits.release();
+    }
+
+    /**
+     * <p>
+     * Task ordered by priority and then by submission order
+     * </p>
+     */
+    private abstract static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final int _priority;
+        private final long _sequence;
+
+        PrioritizedTask(int priority, long sequence) {
+            _priority = priority;
+            _sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (_priority != other._priority) {
+                return _priority < other._priority ? -1 : 1;
+            }
+            return _sequence < other._sequence ? -1 : (_sequence == other._sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * <p>
+     * Policy which renders first pages of every document before the other pages,
+     * which are rendered when there are no first pages waiting.
+     * </p>
+     */
+    public static class FirstPagesFirstPolicy implements CacheWarmUpPolicy {
+        private static final int LAZY_PRIORITY = 1000000;
+
+        private final int _firstPages;
+        private final int _maxPages;
+
+        /**
+         * <p>
+         * Initializes a new instance of the {@code FirstPagesFirstPolicy} class.
+         * </p>
+         *
+         * @param firstPages Number of pages rendered eagerly.
+         * @param maxPages   Maximum number of pre-rendered pages of a document, 0 for all pages.
+         */
+        public FirstPagesFirstPolicy(int firstPages, int maxPages) {
+            if (firstPages < 0)
+                throw new IllegalArgumentException("firstPages");
+            if (maxPages < 0)
+                throw new IllegalArgumentException("maxPages");
+            _firstPages = firstPages;
+            _maxPages = maxPages;
+        }
+
+        public int getPriority(String guid, int pageNumber, int pageCount) {
+            if (_maxPages > 0 && pageNumber > _maxPages) {
+                return -1;
+            }
+            return pageNumber <= _firstPages ? pageNumber : LAZY_PRIORITY + pageNumber;
+        }
+    }
+}
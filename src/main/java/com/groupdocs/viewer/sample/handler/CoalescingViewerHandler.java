@@ -0,0 +1,297 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.converter.options.HtmlOptions;
+import com.groupdocs.viewer.converter.options.ImageOptions;
+import com.groupdocs.viewer.domain.html.HtmlResource;
+import com.groupdocs.viewer.domain.html.PageHtml;
+import com.groupdocs.viewer.domain.image.PageImage;
+import com.groupdocs.viewer.handler.ViewerHtmlHandler;
+import com.groupdocs.viewer.handler.ViewerImageHandler;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * <p>
+ * Facade over {@code ViewerHtmlHandler} and {@code ViewerImageHandler} which coalesces
+ * concurrent renders of the same document with equivalent options: the first caller renders,
+ * other callers wait for its result instead of converting the document again.
+ * Renders with options which can not be fingerprinted or which carry a document password are not shared.
+ * </p>
+ */
+public class CoalescingViewerHandler {
+    private final ViewerHtmlHandler _htmlHandler;
+    private final ViewerImageHandler _imageHandler;
+
+    /**
+     * <p>
+     * Renders in progress keyed by guid and options fingerprint
+     * </p>
+     */
+    private final ConcurrentMap<String, FutureTask<List<PageHtml>>> _htmlRenders = new ConcurrentHashMap<String, FutureTask<List<PageHtml>>>();
+    private final ConcurrentMap<String, ImageRender> _imageRenders = new ConcurrentHashMap<String, ImageRender>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CoalescingViewerHandler} class.
+     * </p>
+     *
+     * @param htmlHandler  The html handler, can be null if html pages are not requested.
+     * @param imageHandler The image handler, can be null if image pages are not requested.
+     */
+    public CoalescingViewerHandler(ViewerHtmlHandler htmlHandler, ViewerImageHandler imageHandler) {
+        if (htmlHandler == null && imageHandler == null)
+            throw new IllegalArgumentException("htmlHandler");
+
+        _htmlHandler = htmlHandler;
+        _imageHandler = imageHandler;
+    }
+
+    /**
+     * <p>
+     * Gets html pages, shares render with concurrent callers asking for the same pages.
+     * </p>
+     *
+     * @param guid    The file unique identifier.
+     * @param options The html options.
+     * @return List of pages, each caller gets its own copies
+     * @throws Exception when rendering fails
+     */
+    public List<PageHtml> getPages(final String guid, final HtmlOptions options) throws Exception {
+        if (_htmlHandler == null)
+            throw new IllegalStateException("Html handler is not set");
+
+        final Callable<List<PageHtml>> render = new Callable<List<PageHtml>>() {
+            @Override
+            public List<PageHtml> call() throws Exception {
+                return _htmlHandler.getPages(guid, options);
+            }
+        };
+
+        // Page html is mutable, so each caller gets its own copies of the rendered pages
+        final List<PageHtml> rendered = coalesce(_htmlRenders, getRenderKey(guid, options), render);
+        final List<PageHtml> result = new ArrayList<PageHtml>(rendered.size());
+        for (PageHtml page : rendered) {
+            result.add(copyOf(page));
+        }
+        return result;
+    }
+
+    /**
+     * <p>
+     * Gets image pages, shares render with concurrent callers asking for the same pages.
+     * Page streams can be read only once, so when other callers joined the render its pages are read
+     * into memory and each caller gets pages with its own streams. A caller rendering alone gets
+     * the rendered streams as is.
+     * </p>
+     *
+     * @param guid    The file unique identifier.
+     * @param options The image options.
+     * @return List of pages
+     * @throws Exception when rendering fails
+     */
+    public List<PageImage> getPages(final String guid, final ImageOptions options) throws Exception {
+        if (_imageHandler == null)
+            throw new IllegalStateException("Image handler is not set");
+
+        final String key = getRenderKey(guid, options);
+        if (key == null) {
+            return _imageHandler.getPages(guid, options);
+        }
+
+        final ImageRender render = new ImageRender(new Callable<List<PageImage>>() {
+            @Override
+            public List<PageImage> call() throws Exception {
+                return _imageHandler.getPages(guid, options);
+            }
+        });
+        while (true) {
+            final ImageRender running = _imageRenders.putIfAbsent(key, render);
+            if (running == null) {
+                break;
+            }
+            if (running.join()) {
+                await(running);
+                return copyOf(await(running._buffered));
+            }
+            // The render already gave its pages to its caller and left the map, so a new render is started
+        }
+
+        try {
+            render.run();
+        } finally {
+            _imageRenders.remove(key, render);
+        }
+        final List<PageImage> pages = await(render);
+        if (!render.seal()) {
+            return pages;
+        }
+        render._buffered.run();
+        return copyOf(await(render._buffered));
+    }
+
+    /**
+     * <p>
+     * Gets number of renders in progress.
+     * </p>
+     */
+    public int getRendersInProgress() {
+        return _htmlRenders.size() + _imageRenders.size();
+    }
+
+    /**
+     * <p>
+     * Gets key of the render, options without stable fingerprint are not coalesced.
+     * </p>
+     *
+     * @return The key or null when the options can not be fingerprinted
+     */
+    private static String getRenderKey(String guid, Object options) {
+        // Callers with different passwords must not share a render, the password is not part of the fingerprint
+        if (RenderOptionsFingerprint.hasPassword(options)) {
+            return null;
+        }
+        try {
+            return guid + "|" + RenderOptionsFingerprint.of(options);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>
+     * Runs the render or waits for the same render started by other caller.
+     * </p>
+     */
+    private static <V> V coalesce(ConcurrentMap<String, FutureTask<V>> renders, String key, Callable<V> callable) throws Exception {
+        final FutureTask<V> render = new FutureTask<V>(callable);
+        if (key == null) {
+            render.run();
+            return await(render);
+        }
+
+        final FutureTask<V> running = renders.putIfAbsent(key, render);
+        if (running != null) {
+            return await(running);
+        }
+        try {
+            render.run();
+        } finally {
+            renders.remove(key, render);
+        }
+        return await(render);
+    }
+
+    private static PageHtml copyOf(PageHtml page) {
+        final PageHtml copy = new PageHtml();
+        copy.setPageNumber(page.getPageNumber());
+        copy.setHtmlContent(page.getHtmlContent());
+        final List<HtmlResource> resources = page.getHtmlResources();
+        copy.setHtmlResources(resources == null ? null : new ArrayList<HtmlResource>(resources));
+        return copy;
+    }
+
+    private static List<PageImage> copyOf(List<RenderedImage> images) {
+        final List<PageImage> result = new ArrayList<PageImage>(images.size());
+        for (RenderedImage image : images) {
+            final PageImage page = new PageImage();
+            page.setPageNumber(image._pageNumber);
+            page.setStream(new ByteArrayInputStream(image._content));
+            result.add(page);
+        }
+        return result;
+    }
+
+    private static <V> V await(Future<V> render) throws Exception {
+        try {
+            return render.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * <p>
+     * Image render shared by concurrent callers. Callers join it until it is sealed by the caller
+     * which ran it, pages are read into memory only when someone joined.
+     * </p>
+     */
+    private static class ImageRender extends FutureTask<List<PageImage>> {
+        private final FutureTask<List<RenderedImage>> _buffered;
+        private int _joined;
+        private boolean _sealed;
+
+        ImageRender(Callable<List<PageImage>> render) {
+            super(render);
+            _buffered = new FutureTask<List<RenderedImage>>(new Callable<List<RenderedImage>>() {
+                @Override
+                public List<RenderedImage> call() throws Exception {
+                    final List<PageImage> pages = get();
+                    final List<RenderedImage> result = new ArrayList<RenderedImage>(pages.size());
+                    for (PageImage page : pages) {
+                        final InputStream stream = page.getStream();
+                        try {
+                            result.add(new RenderedImage(page.getPageNumber(), IOUtils.toByteArray(stream)));
+                        } finally {
+                            stream.close();
+                        }
+                    }
+                    return result;
+                }
+            });
+        }
+
+        /**
+         * <p>
+         * Joins the render.
+         * </p>
+         *
+         * @return false if the render was sealed and its pages are not shared anymore
+         */
+        synchronized boolean join() {
+            if (_sealed) {
+                return false;
+            }
+            _joined++;
+            return true;
+        }
+
+        /**
+         * <p>
+         * Stops other callers from joining.
+         * </p>
+         *
+         * @return true if someone joined and the pages have to be buffered
+         */
+        synchronized boolean seal() {
+            _sealed = true;
+            return _joined > 0;
+        }
+    }
+
+    /**
+     * <p>
+     * Page image read into memory, shared by callers of the same render
+     * </p>
+     */
+    private static class RenderedImage {
+        private final int _pageNumber;
+        private final byte[] _content;
+
+        RenderedImage(int pageNumber, byte[] content) {
+            _pageNumber = pageNumber;
+            _content = content;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.domain.cache.*;
+import com.groupdocs.viewer.handler.cache.ICacheDataHandler;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Cache data handler decorator which stores cache files gzip compressed and decompresses them
+ * transparently when they are read. Compression level is configured per {@code CacheFileType};
+ * already compressed formats (png, jpeg, fonts, archives) are stored as is. Files cached before
+ * compression was enabled are recognized by the missing gzip header and read unchanged.
+ * </p>
+ * <p>
+ * Compressed files can be served to clients accepting gzip encoding without decompression,
+ * see {@link #getCompressedInputStream(CacheFileDescription)}. Compression settings should not be
+ * changed for a populated cache.
+ * </p>
+ */
+public class CompressingCacheDataHandler implements ICacheDataHandler {
+    /**
+     * <p>
+     * Level which disables compression of a cache file type
+     * </p>
+     */
+    public static final int NO_COMPRESSION = Deflater.NO_COMPRESSION;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * <p>
+     * Extensions of formats which are compressed already
+     * </p>
+     */
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "png", "jpg", "jpeg", "gif", "webp", "woff", "woff2", "zip", "gz", "7z", "rar",
+            "docx", "xlsx", "pptx", "pdf", "mp3", "mp4"));
+
+    private final ICacheDataHandler _cacheDataHandler;
+    private final Map<Integer, Integer> _levels = new HashMap<Integer, Integer>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code CompressingCacheDataHandler} class which compresses
+     * pages and page resources with default level and stores attachments and documents as is.
+     * </p>
+     *
+     * @param cacheDataHandler The cache data handler storing the files.
+     */
+    public CompressingCacheDataHandler(ICacheDataHandler cacheDataHandler) {
+        if (cacheDataHandler == null)
+            throw new IllegalArgumentException("cacheDataHandler");
+
+        _cacheDataHandler = cacheDataHandler;
+        _levels.put(CacheFileType.Page, Deflater.DEFAULT_COMPRESSION);
+        _levels.put(CacheFileType.PageResource, Deflater.DEFAULT_COMPRESSION);
+        _levels.put(CacheFileType.Attachment, NO_COMPRESSION);
+        _levels.put(CacheFileType.Document, NO_COMPRESSION);
+    }
+
+    /**
+     * <p>
+     * Sets compression level of the cache file type.
+     * </p>
+     *
+     * @param cacheFileType The cache file type, e.g. {@code CacheFileType.Page}.
+     * @param level         Deflate level 1-9, {@code Deflater.DEFAULT_COMPRESSION} or {@link #NO_COMPRESSION}.
+     */
+    public synchronized void setCompressionLevel(int cacheFileType, int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION))
+            throw new IllegalArgumentException("level");
+        _levels.put(cacheFileType, level);
+    }
+
+    /**
+     * <p>
+     * Gets compression level of the cache file type.
+     * </p>
+     *
+     * @param cacheFileType The cache file type.
+     * @return The deflate level or {@link #NO_COMPRESSION}
+     */
+    public synchronized int getCompressionLevel(int cacheFileType) {
+        final Integer level = _levels.get(cacheFileType);
+        return level == null ? NO_COMPRESSION : level;
+    }
+
+    public boolean exists(CacheFileDescription cacheFileDescription) {
+        return _cacheDataHandler.exists(cacheFileDescription);
+    }
+
+    /**
+     * <p>
+     * Get stream with decompressed cached file.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return input stream
+     */
+    public InputStream getInputStream(CacheFileDescription cacheFileDescription) {
+        final InputStream stream = _cacheDataHandler.getInputStream(cacheFileDescription);
+        if (stream == null || !isCompressible(cacheFileDescription)) {
+            return stream;
+        }
+
+        try {
+            final BufferedInputStream input = new BufferedInputStream(stream, BUFFER_SIZE);
+            if (isGzip(input)) {
+                return new GZIPInputStream(input, BUFFER_SIZE);
+            }
+            return input;
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(stream);
+        }
+        return null;
+    }
+
+    /**
+     * <p>
+     * Get stream with compressed content of cached file, e.g. to send it with
+     * {@code Content-Encoding: gzip} to clients which accept it.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return gzip stream or null if the file is not stored compressed, use {@link #getInputStream} then
+     */
+    public InputStream getCompressedInputStream(CacheFileDescription cacheFileDescription) {
+        if (!isCompressible(cacheFileDescription)) {
+            return null;
+        }
+        final InputStream stream = _cacheDataHandler.getInputStream(cacheFileDescription);
+        if (stream == null) {
+            return null;
+        }
+
+        try {
+            final BufferedInputStream input = new BufferedInputStream(stream, BUFFER_SIZE);
+            if (isGzip(input)) {
+                return input;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        closeQuietly(stream);
+        return null;
+    }
+
+    /**
+     * <p>
+     * Prepare stream where file will be stored, content is compressed unless its type is configured
+     * without compression or its format is compressed already.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return OutputStream
+     */
+    public OutputStream getOutputSaveStream(CacheFileDescription cacheFileDescription) {
+        final OutputStream stream = _cacheDataHandler.getOutputSaveStream(cacheFileDescription);
+        if (stream == null || !isCompressible(cacheFileDescription)) {
+            return stream;
+        }
+
+        final int level = getCompressionLevel(cacheFileDescription.getCacheFileType());
+        try {
+            return new GZIPOutputStream(stream, BUFFER_SIZE) {
+                {
+                    def.setLevel(level);
+                }
+            };
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(stream);
+        }
+        return null;
+    }
+
+    public String getHtmlPageResourcesFolder(CachedPageDescription cachedPageDescription) {
+        return _cacheDataHandler.getHtmlPageResourcesFolder(cachedPageDescription);
+    }
+
+    public List<CachedPageResourceDescription> getHtmlPageResources(CachedPageDescription cachedPageDescription) {
+        return _cacheDataHandler.getHtmlPageResources(cachedPageDescription);
+    }
+
+    public Date getLastModificationDate(CacheFileDescription cacheFileDescription) {
+        return _cacheDataHandler.getLastModificationDate(cacheFileDescription);
+    }
+
+    public void clearCache() {
+        _cacheDataHandler.clearCache();
+    }
+
+    public void clearCache(String guid) {
+        _cacheDataHandler.clearCache(guid);
+    }
+
+    public String getFilePath(CacheFileDescription cacheFileDescription) {
+        return _cacheDataHandler.getFilePath(cacheFileDescription);
+    }
+
+    /**
+     * <p>
+     * Indicates whether the cache file is stored compressed.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return true when compression is enabled for its type and its format is not compressed already
+     */
+    public boolean isCompressible(CacheFileDescription cacheFileDescription) {
+        if (getCompressionLevel(cacheFileDescription.getCacheFileType()) == NO_COMPRESSION) {
+            return false;
+        }
+        return !COMPRESSED_EXTENSIONS.contains(getExtension(cacheFileDescription));
+    }
+
+    private static String getExtension(CacheFileDescription cacheFileDescription) {
+        String name;
+        switch (cacheFileDescription.getCacheFileType()) {
+            case CacheFileType.Page:
+                name = ((CachedPageDescription) cacheFileDescription).getOutputExtension();
+                break;
+            case CacheFileType.PageResource:
+                name = ((CachedPageResourceDescription) cacheFileDescription).getResourceName();
+                break;
+            case CacheFileType.Attachment:
+                name = ((CachedAttachmentDescription) cacheFileDescription).getAttachmentName();
+                break;
+            case CacheFileType.Document:
+                name = ((CachedDocumentDescription) cacheFileDescription).getOutputExtension();
+                break;
+            default:
+                name = null;
+        }
+        if (name == null) {
+            return "";
+        }
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * <p>
+     * Checks gzip header without consuming it.
+     * </p>
+     */
+    private static boolean isGzip(BufferedInputStream input) throws IOException {
+        input.mark(2);
+        final int first = input.read();
+        final int second = input.read();
+        input.reset();
+        return first >= 0 && second >= 0 && (first | (second << 8)) == GZIP_MAGIC;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
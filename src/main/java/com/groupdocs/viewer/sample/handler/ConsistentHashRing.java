@@ -0,0 +1,115 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * Consistent hash ring assigning keys to nodes. Every node is placed on the ring at several points (virtual nodes),
+ * so keys are spread evenly and adding or removing a node moves only the keys of that node.
+ * </p>
+ *
+ * @param <T> The node type, nodes are placed by their {@code toString()} value.
+ */
+public class ConsistentHashRing<T> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int _virtualNodes;
+    private final Set<T> _nodes = new LinkedHashSet<T>();
+
+    /**
+     * <p>
+     * Ring points, replaced on every change so lookups need no locking
+     * </p>
+     */
+    private volatile TreeMap<Long, T> _ring = new TreeMap<Long, T>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code ConsistentHashRing} class.
+     * </p>
+     *
+     * @param virtualNodes Number of ring points per node, e.g. 160.
+     */
+    public ConsistentHashRing(int virtualNodes) {
+        if (virtualNodes <= 0)
+            throw new IllegalArgumentException("virtualNodes");
+        _virtualNodes = virtualNodes;
+    }
+
+    public synchronized void add(T node) {
+        if (node == null)
+            throw new IllegalArgumentException("node");
+        if (_nodes.add(node)) {
+            rebuild();
+        }
+    }
+
+    public synchronized void remove(T node) {
+        if (_nodes.remove(node)) {
+            rebuild();
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the node owning the key.
+     * </p>
+     *
+     * @param key The key, e.g. the file unique identifier.
+     * @return The node or null if the ring is empty
+     */
+    public T get(String key) {
+        final TreeMap<Long, T> ring = _ring;
+        if (ring.isEmpty()) {
+            return null;
+        }
+        final Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public synchronized Set<T> getNodes() {
+        return new LinkedHashSet<T>(_nodes);
+    }
+
+    private void rebuild() {
+        final TreeMap<Long, T> ring = new TreeMap<Long, T>();
+        for (T node : _nodes) {
+            for (int n = 0; n < _virtualNodes; n++) {
+                final long point = hash(node + "#" + n);
+                // Colliding points are kept by the first node, so placement does not depend on order of removals
+                if (!ring.containsKey(point)) {
+                    ring.put(point, node);
+                }
+            }
+        }
+        _ring = ring;
+    }
+
+    /**
+     * <p>
+     * Hashes the key to ring point, first 8 bytes of its MD5 digest.
+     * </p>
+     *
+     * @param key The key.
+     * @return The ring point
+     */
+    static long hash(String key) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long hash = 0;
+        for (int n = 0; n < 8; n++) {
+            hash = (hash << 8) | (digest[n] & 0xFF);
+        }
+        return hash;
+    }
+}
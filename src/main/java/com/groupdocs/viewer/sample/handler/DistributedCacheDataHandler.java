@@ -0,0 +1,454 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.domain.cache.*;
+import com.groupdocs.viewer.handler.cache.ICacheDataHandler;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Cache data handler sharing one cache between several viewer nodes. Documents are assigned to nodes
+ * by consistent hashing of their GUID, so all cached files of a document live on one node and every page
+ * is rendered once per cluster instead of once per node. Each node runs a {@link CachePeerServer} serving
+ * its {@link LocalCacheDataHandler}; files of documents owned by this node are used directly, others
+ * are read from and written to the owning peer.
+ * </p>
+ * <p>
+ * Files read from peers are kept in an optional near-cache, e.g. {@link MemoryPageCache}. A near-cache copy
+ * is used without asking the peer for the near-cache TTL, then it is validated by the modification time
+ * of the file on the peer, so files re-rendered by other nodes are picked up. When the owning
+ * peer is not reachable, the local cache data handler is used instead, so pages are rendered and cached
+ * locally until the peer is available again. All nodes must use the same cache layout and node list.
+ * </p>
+ */
+public class DistributedCacheDataHandler implements ICacheDataHandler, CachePeerServer.ClearListener, Closeable {
+    private static final Logger LOGGER = Logger.getLogger(DistributedCacheDataHandler.class.getName());
+    private static final int DEFAULT_VIRTUAL_NODES = 160;
+    private static final int DEFAULT_TIMEOUT = 5000;
+    private static final long DEFAULT_RETRY_DELAY = 10 * 1000L;
+    private static final long DEFAULT_NEAR_CACHE_TTL = 10 * 1000L;
+    private static final int MAX_NEAR_CACHE_ENTRIES = 100000;
+    private static final int MAX_BUFFERED_SIZE = 1024 * 1024;
+    private static final int SPILL_THRESHOLD = 1024 * 1024;
+
+    private final LocalCacheDataHandler _localHandler;
+    private final String _selfNode;
+    private final ConsistentHashRing<String> _ring;
+    private final Map<String, CachePeerClient> _peers = new LinkedHashMap<String, CachePeerClient>();
+    private final PageCache _nearCache;
+    private final long _nearCacheTtl;
+    private final Path _cacheRoot;
+
+    /**
+     * <p>
+     * Peer modification times of near-cache copies by near-cache key
+     * </p>
+     */
+    private final ConcurrentMap<String, NearCacheEntry> _nearCacheEntries = new ConcurrentHashMap<String, NearCacheEntry>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code DistributedCacheDataHandler} class.
+     * </p>
+     *
+     * @param localHandler The cache data handler of this node, served to peers by its {@link CachePeerServer}.
+     * @param selfNode     This node in {@code host:port} form, as listed in nodes.
+     * @param nodes        All nodes of the cluster in {@code host:port} form.
+     * @param nearCache    Cache of files read from peers, can be null to disable it.
+     */
+    public DistributedCacheDataHandler(LocalCacheDataHandler localHandler, String selfNode, Collection<String> nodes, PageCache nearCache) {
+        this(localHandler, selfNode, nodes, nearCache, DEFAULT_VIRTUAL_NODES, DEFAULT_TIMEOUT, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code DistributedCacheDataHandler} class.
+     * </p>
+     *
+     * @param localHandler The cache data handler of this node, served to peers by its {@link CachePeerServer}.
+     * @param selfNode     This node in {@code host:port} form, as listed in nodes.
+     * @param nodes        All nodes of the cluster in {@code host:port} form.
+     * @param nearCache    Cache of files read from peers, can be null to disable it.
+     * @param virtualNodes Number of hash ring points per node.
+     * @param timeout      Peer connect and read timeout in milliseconds.
+     * @param retryDelay   Time in milliseconds a failed peer is not used.
+     */
+    public DistributedCacheDataHandler(LocalCacheDataHandler localHandler, String selfNode, Collection<String> nodes, PageCache nearCache,
+                                       int virtualNodes, int timeout, long retryDelay) {
+        this(localHandler, selfNode, nodes, nearCache, virtualNodes, timeout, retryDelay, DEFAULT_NEAR_CACHE_TTL);
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code DistributedCacheDataHandler} class.
+     * </p>
+     *
+     * @param localHandler The cache data handler of this node, served to peers by its {@link CachePeerServer}.
+     * @param selfNode     This node in {@code host:port} form, as listed in nodes.
+     * @param nodes        All nodes of the cluster in {@code host:port} form.
+     * @param nearCache    Cache of files read from peers, can be null to disable it.
+     * @param virtualNodes Number of hash ring points per node.
+     * @param timeout      Peer connect and read timeout in milliseconds.
+     * @param retryDelay   Time in milliseconds a failed peer is not used.
+     * @param nearCacheTtl Time in milliseconds a near-cache copy is used before it is validated with the peer.
+     */
+    public DistributedCacheDataHandler(LocalCacheDataHandler localHandler, String selfNode, Collection<String> nodes, PageCache nearCache,
+                                       int virtualNodes, int timeout, long retryDelay, long nearCacheTtl) {
+        if (localHandler == null)
+            throw new IllegalArgumentException("localHandler");
+        if (selfNode == null)
+            throw new IllegalArgumentException("selfNode");
+        if (nodes == null)
+            throw new IllegalArgumentException("nodes");
+        if (nearCacheTtl < 0)
+            throw new IllegalArgumentException("nearCacheTtl");
+
+        _localHandler = localHandler;
+        _selfNode = selfNode;
+        _nearCache = nearCache;
+        _nearCacheTtl = nearCacheTtl;
+        _cacheRoot = localHandler.getCacheRoot().toAbsolutePath().normalize();
+        _ring = new ConsistentHashRing<String>(virtualNodes);
+        _ring.add(selfNode);
+        for (String node : nodes) {
+            if (!node.equals(selfNode) && !_peers.containsKey(node)) {
+                _peers.put(node, new CachePeerClient(node, timeout, retryDelay));
+                _ring.add(node);
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the node owning cached files of the document.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The node in {@code host:port} form
+     */
+    public String getOwner(String guid) {
+        return _ring.get(guid);
+    }
+
+    public boolean exists(CacheFileDescription cacheFileDescription) {
+        final CachePeerClient peer = getPeer(cacheFileDescription.getGuid());
+        final String key = peer != null ? getKey(cacheFileDescription) : null;
+        if (key == null) {
+            return _localHandler.exists(cacheFileDescription);
+        }
+
+        if (_nearCache != null && isNearCacheValid(peer, key, getNearCacheKey(cacheFileDescription.getGuid(), key))) {
+            return true;
+        }
+        try {
+            return peer.getLastModified(key) >= 0;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cache peer " + peer + " failed, using local cache", e);
+            return _localHandler.exists(cacheFileDescription);
+        }
+    }
+
+    public InputStream getInputStream(CacheFileDescription cacheFileDescription) {
+        final CachePeerClient peer = getPeer(cacheFileDescription.getGuid());
+        final String key = peer != null ? getKey(cacheFileDescription) : null;
+        if (key == null) {
+            return _localHandler.getInputStream(cacheFileDescription);
+        }
+
+        final String nearCacheKey = getNearCacheKey(cacheFileDescription.getGuid(), key);
+        if (_nearCache != null && isNearCacheValid(peer, key, nearCacheKey)) {
+            final InputStream cached = _nearCache.getInputStream(nearCacheKey);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        final CachePeerClient.Content content;
+        try {
+            content = peer.get(key, getBufferLimit());
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cache peer " + peer + " failed, using local cache", e);
+            return _localHandler.getInputStream(cacheFileDescription);
+        }
+        if (content == null)
+            throw new RuntimeException("Cache data handler can not find file '" + key + "' on cache peer " + peer);
+
+        if (_nearCache != null && content.getBytes() != null) {
+            putToNearCache(nearCacheKey, content.getBytes(), content.getLastModified());
+        }
+        return content.getStream();
+    }
+
+    public OutputStream getOutputSaveStream(final CacheFileDescription cacheFileDescription) {
+        final CachePeerClient peer = getPeer(cacheFileDescription.getGuid());
+        final String key = peer != null ? getKey(cacheFileDescription) : null;
+        if (key == null) {
+            return _localHandler.getOutputSaveStream(cacheFileDescription);
+        }
+
+        final String guid = CacheEntryIndex.getGuid(cacheFileDescription);
+        final String resourceName = cacheFileDescription.getCacheFileType() == CacheFileType.PageResource
+                ? ((CachedPageResourceDescription) cacheFileDescription).getResourceName() : null;
+        final String manifestKey = cacheFileDescription.getCacheFileType() == CacheFileType.Page && CacheFileNames.isHtmlPage((CachedPageDescription) cacheFileDescription)
+                ? toKey(PageResourceManifest.getManifestPath(_localHandler.getHtmlPageResourcesFolder((CachedPageDescription) cacheFileDescription))) : null;
+        return new SpillOutputStream(SPILL_THRESHOLD) {
+            @Override
+            protected void onClose() throws IOException {
+                final long lastModified;
+                try {
+                    final InputStream content = openInputStream();
+                    try {
+                        lastModified = peer.put(key, guid, resourceName, manifestKey, size(), content);
+                    } finally {
+                        content.close();
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Can't save " + key + " to cache peer " + peer + ", saving to local cache", e);
+                    saveLocally(cacheFileDescription, this);
+                    return;
+                }
+                if (_nearCache != null && isInMemory()) {
+                    putToNearCache(getNearCacheKey(cacheFileDescription.getGuid(), key), toByteArray(), lastModified);
+                }
+            }
+        };
+    }
+
+    public String getHtmlPageResourcesFolder(CachedPageDescription cachedPageDescription) {
+        return _localHandler.getHtmlPageResourcesFolder(cachedPageDescription);
+    }
+
+    public List<CachedPageResourceDescription> getHtmlPageResources(CachedPageDescription cachedPageDescription) {
+        final CachePeerClient peer = getPeer(cachedPageDescription.getGuid());
+        final String folderKey = peer != null ? toKey(_localHandler.getHtmlPageResourcesFolder(cachedPageDescription)) : null;
+        if (folderKey == null) {
+            return _localHandler.getHtmlPageResources(cachedPageDescription);
+        }
+
+        try {
+            List<CachedPageResourceDescription> result = new ArrayList<CachedPageResourceDescription>();
+            for (String name : peer.list(folderKey)) {
+                result.add(new CachedPageResourceDescription(cachedPageDescription, name));
+            }
+            return result;
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cache peer " + peer + " failed, using local cache", e);
+            return _localHandler.getHtmlPageResources(cachedPageDescription);
+        }
+    }
+
+    public Date getLastModificationDate(CacheFileDescription cacheFileDescription) {
+        final CachePeerClient peer = getPeer(cacheFileDescription.getGuid());
+        final String key = peer != null ? getKey(cacheFileDescription) : null;
+        if (key == null) {
+            return _localHandler.getLastModificationDate(cacheFileDescription);
+        }
+
+        try {
+            return new Date(Math.max(0, peer.getLastModified(key)));
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cache peer " + peer + " failed, using local cache", e);
+            return _localHandler.getLastModificationDate(cacheFileDescription);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Clears the local cache and the near-cache, caches of peers are kept.
+     * </p>
+     */
+    public void clearCache() {
+        _localHandler.clearCache();
+        if (_nearCache != null) {
+            _nearCache.clear();
+            _nearCacheEntries.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Clears cache of the document on all available nodes, so files cached locally while the owner
+     * was not reachable and near-cache copies are removed as well.
+     * </p>
+     */
+    public void clearCache(String guid) {
+        _localHandler.clearCache(guid);
+        onCleared(guid);
+        for (CachePeerClient peer : _peers.values()) {
+            if (!peer.isAvailable()) {
+                continue;
+            }
+            try {
+                peer.clear(guid);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Can't clear cache of " + guid + " on cache peer " + peer, e);
+            }
+        }
+    }
+
+    public String getFilePath(CacheFileDescription cacheFileDescription) {
+        return _localHandler.getFilePath(cacheFileDescription);
+    }
+
+    /**
+     * <p>
+     * Removes near-cache copies of the document cleared by a peer.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     */
+    public void onCleared(String guid) {
+        if (_nearCache != null) {
+            final String prefix = getNearCacheKey(guid, "");
+            _nearCache.removeByPrefix(prefix);
+            final Iterator<String> iterator = _nearCacheEntries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().startsWith(prefix)) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Closes pooled connections to peers.
+     * </p>
+     */
+    @Override
+    public void close() {
+        for (CachePeerClient peer : _peers.values()) {
+            peer.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Gets the peer owning the document.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The peer or null if the document is owned by this node or the owner is not available
+     */
+    private CachePeerClient getPeer(String guid) {
+        final String owner = _ring.get(guid);
+        final CachePeerClient peer = _peers.get(owner);
+        return peer != null && peer.isAvailable() ? peer : null;
+    }
+
+    /**
+     * <p>
+     * Gets the cache file path relative to the cache folder, as used by peers.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return The key or null if the file is not placed inside the cache folder
+     */
+    private String getKey(CacheFileDescription cacheFileDescription) {
+        return toKey(_localHandler.getFilePath(cacheFileDescription));
+    }
+
+    private String toKey(String path) {
+        final Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!file.startsWith(_cacheRoot) || file.equals(_cacheRoot)) {
+            return null;
+        }
+        return _cacheRoot.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * <p>
+     * Indicates whether the near-cache copy can be used. Copies older than the near-cache TTL are validated
+     * by the modification time of the file on the peer and removed when the file changed.
+     * </p>
+     *
+     * @return true if the copy is cached and up to date
+     */
+    private boolean isNearCacheValid(CachePeerClient peer, String key, String nearCacheKey) {
+        final NearCacheEntry entry = _nearCacheEntries.get(nearCacheKey);
+        if (entry == null) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        if (now < entry._validUntil) {
+            return _nearCache.contains(nearCacheKey);
+        }
+
+        try {
+            if (peer.getLastModified(key) == entry._lastModified) {
+                entry._validUntil = now + _nearCacheTtl;
+                return _nearCache.contains(nearCacheKey);
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Cache peer " + peer + " failed, near-cache copy of " + key + " not validated", e);
+            return false;
+        }
+        _nearCacheEntries.remove(nearCacheKey, entry);
+        _nearCache.remove(nearCacheKey);
+        return false;
+    }
+
+    private void putToNearCache(String nearCacheKey, byte[] content, long lastModified) {
+        if (_nearCacheEntries.size() >= MAX_NEAR_CACHE_ENTRIES) {
+            _nearCacheEntries.clear();
+        }
+        _nearCacheEntries.put(nearCacheKey, new NearCacheEntry(lastModified, System.currentTimeMillis() + _nearCacheTtl));
+        _nearCache.put(nearCacheKey, content);
+    }
+
+    private static String getNearCacheKey(String guid, String key) {
+        return guid + "\n" + key;
+    }
+
+    private int getBufferLimit() {
+        if (_nearCache == null) {
+            return MAX_BUFFERED_SIZE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(MAX_BUFFERED_SIZE, _nearCache.getMaxEntrySize()));
+    }
+
+    private void saveLocally(CacheFileDescription cacheFileDescription, SpillOutputStream content) throws IOException {
+        final OutputStream output = _localHandler.getOutputSaveStream(cacheFileDescription);
+        if (output == null) {
+            return;
+        }
+        try {
+            final InputStream input = content.openInputStream();
+            try {
+                final byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = input.read(buffer)) >= 0) {
+                    output.write(buffer, 0, read);
+                }
+            } finally {
+                input.close();
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Modification time of the file on the peer a near-cache copy was taken from
+     * </p>
+     */
+    private static class NearCacheEntry {
+        private final long _lastModified;
+        private volatile long _validUntil;
+
+        NearCacheEntry(long lastModified, long validUntil) {
+            _lastModified = lastModified;
+            _validUntil = validUntil;
+        }
+    }
+}
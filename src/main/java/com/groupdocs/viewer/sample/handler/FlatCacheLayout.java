@@ -0,0 +1,43 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.config.ViewerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Default cache layout, document folder mirrors the document path relative to the storage folder.
+ * </p>
+ */
+public class FlatCacheLayout implements CacheLayout {
+    private final ViewerConfig _viewerConfig;
+
+    /**
+     * <p>
+     * Strings to replace when file GUID is an absolute path
+     * </p>
+     */
+    private final List<String> _patternsToReplace = new ArrayList<String>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code FlatCacheLayout} class.
+     * </p>
+     *
+     * @param viewerConfig The viewer configuration.
+     */
+    public FlatCacheLayout(ViewerConfig viewerConfig) {
+        _viewerConfig = viewerConfig;
+        _patternsToReplace.add(_viewerConfig.getCachePath());
+        _patternsToReplace.add(_viewerConfig.getStoragePath());
+    }
+
+    public String getDocumentFolder(String guid) {
+        String docFolder = guid;
+        for (String str : _patternsToReplace) {
+            docFolder = docFolder.replace(str, "");
+        }
+        return _viewerConfig.getCachePath() + docFolder;
+    }
+}
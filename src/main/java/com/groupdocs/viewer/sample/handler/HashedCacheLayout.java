@@ -0,0 +1,54 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.config.ViewerConfig;
+
+import java.io.File;
+
+/**
+ * <p>
+ * Hashed cache layout. Document folder name is a hash of the document GUID, folders are spread
+ * over two levels of sub folders e.g. {@code cache/3f/a2/3fa2...}, so no folder holds more than
+ * a few thousand entries and storage paths do not leak into the cache. The folder does not depend on
+ * the document version, so resolving it costs no storage calls and {@code clearCache(guid)} always
+ * finds the cached files of an updated document.
+ * </p>
+ */
+public class HashedCacheLayout implements CacheLayout {
+    private final ViewerConfig _viewerConfig;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code HashedCacheLayout} class.
+     * </p>
+     *
+     * @param viewerConfig The viewer configuration.
+     */
+    public HashedCacheLayout(ViewerConfig viewerConfig) {
+        if (viewerConfig == null)
+            throw new IllegalArgumentException("viewerConfig");
+
+        _viewerConfig = viewerConfig;
+    }
+
+    public String getDocumentFolder(String guid) {
+        final String key = getDocumentKey(guid);
+        return new StringBuilder(_viewerConfig.getCachePath().length() + key.length() + 8)
+                .append(_viewerConfig.getCachePath())
+                .append(File.separatorChar).append(key, 0, 2)
+                .append(File.separatorChar).append(key, 2, 4)
+                .append(File.separatorChar).append(key)
+                .toString();
+    }
+
+    /**
+     * <p>
+     * Gets the hashed key of the document.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return Hex encoded hash
+     */
+    public String getDocumentKey(String guid) {
+        return RenderOptionsFingerprint.hash(guid);
+    }
+}
@@ -0,0 +1,137 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Lock-free latency histogram with log-linear buckets in the spirit of HdrHistogram: every power of two
+ * range of microseconds is split into 16 buckets, so recorded values keep about 6% precision from
+ * microseconds to hours with a fixed amount of memory.
+ * </p>
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = SUB_BUCKETS * 2;
+    private static final int BUCKET_COUNT = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * <p>
+     * Records the latency.
+     * </p>
+     *
+     * @param nanos The latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        _buckets.incrementAndGet(getBucket(micros));
+        _count.incrementAndGet();
+        _sum.addAndGet(micros);
+
+        long max;
+        do {
+            max = _max.get();
+        } while (micros > max && !_max.compareAndSet(max, micros));
+    }
+
+    /**
+     * <p>
+     * Gets the number of recorded values.
+     * </p>
+     */
+    public long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * <p>
+     * Gets the maximum recorded latency in microseconds.
+     * </p>
+     */
+    public long getMax() {
+        return _max.get();
+    }
+
+    /**
+     * <p>
+     * Gets the mean latency in microseconds.
+     * </p>
+     */
+    public double getMean() {
+        final long count = _count.get();
+        return count == 0 ? 0 : (double) _sum.get() / count;
+    }
+
+    /**
+     * <p>
+     * Gets the latency at the percentile, e.g. 99 for p99.
+     * </p>
+     *
+     * @param percentile The percentile from 0 to 100.
+     * @return Upper bound of the bucket holding the percentile in microseconds, 0 when nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile");
+
+        final long count = _count.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += _buckets.get(bucket);
+            if (seen >= target) {
+                return Math.min(getUpperBound(bucket), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * <p>
+     * Removes all recorded values.
+     * </p>
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            _buckets.set(bucket, 0);
+        }
+        _count.set(0);
+        _sum.set(0);
+        _max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + Math.round(getMean()) + "us, p50=" + getPercentile(50)
+                + "us, p99=" + getPercentile(99) + "us, max=" + getMax() + "us";
+    }
+
+    private static int getBucket(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (exponent - SUB_BUCKET_BITS + 1) + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    private static long getUpperBound(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final long lowerBound = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -5,10 +5,18 @@ import com.groupdocs.viewer.domain.cache.*;
 import com.groupdocs.viewer.handler.cache.ICacheDataHandler;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Date;
-import java.util.GregorianCalendar;
-import java.util.List;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Logger;
 
 /**
@@ -20,6 +28,13 @@ import java.util.logging.Logger;
  * @version 18.6
  */
 public class LocalCacheDataHandler implements ICacheDataHandler {
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final String HTML_DIR_NAME = "html";
+    private static final String IMAGE_DIR_NAME = "image";
+    private static final String RESOURCES_DIR_NAME = "resources";
+    private static final String HTML_EXTENSION = ".html";
+    private static final int MAX_PENDING_MANIFESTS = 10000;
+
     /**
      * <p>
      * The _viewer configuration
@@ -29,10 +44,38 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
 
     /**
      * <p>
-     * Strings to replace when file GUID is an absolute path
+     * Placement of document folders inside the cache folder
+     * </p>
+     */
+    private final CacheLayout _layout;
+
+    /**
+     * <p>
+     * Removes files from the cache folder
+     * </p>
+     */
+    private final CacheEvictor _evictor;
+
+    /**
+     * <p>
+     * Cache entries produced for each document
+     * </p>
+     */
+    private volatile CacheEntryIndex _entryIndex = new CacheEntryIndex();
+
+    /**
+     * <p>
+     * Manifests collecting resources of pages being rendered by manifest path, saved with the page
+     * </p>
+     */
+    private final ConcurrentMap<String, PageResourceManifest> _pendingManifests = new ConcurrentHashMap<String, PageResourceManifest>();
+
+    /**
+     * <p>
+     * Fingerprint of the options cached pages are rendered with, see {@link #setRenderOptions(Object)}
      * </p>
      */
-    private final List<String> _patternsToReplace = new ArrayList<String>();
+    private volatile String _optionsSuffix = "";
 
     /**
      * <p>
@@ -42,9 +85,36 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
      * @param viewerConfig The viewer configuration.
      */
     public LocalCacheDataHandler(ViewerConfig viewerConfig) {
+        this(viewerConfig, new FlatCacheLayout(viewerConfig));
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code LocalCacheDataHandler} class with custom cache layout,
+     * e.g. {@link HashedCacheLayout}.
+     * </p>
+     *
+     * @param viewerConfig The viewer configuration.
+     * @param layout       The cache layout.
+     */
+    public LocalCacheDataHandler(ViewerConfig viewerConfig, CacheLayout layout) {
+        if (layout == null)
+            throw new IllegalArgumentException("layout");
+
         _viewerConfig = viewerConfig;
-        _patternsToReplace.add(_viewerConfig.getCachePath());
-        _patternsToReplace.add(_viewerConfig.getStoragePath());
+        _layout = layout;
+        _evictor = new CacheEvictor(getCacheRoot());
+        _evictor.setListener(new CacheEvictor.EvictionListener() {
+            @Override
+            public void evicted(Path file) {
+                _entryIndex.removePath(getIndexPath(file.toString()));
+            }
+        });
+
+        // Nothing was cached yet, so the index sees every cache file
+        if (isEmptyFolder(getCacheRoot())) {
+            _entryIndex.setComplete(true);
+        }
     }
 
     /**
@@ -73,7 +143,7 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
     public InputStream getInputStream(CacheFileDescription cachedPageDescription) {
         String path = getFilePath(cachedPageDescription);
 
-        if (!exists(cachedPageDescription)) {
+        if (!new File(path).exists()) {
             String exceptionMethod = "Cache data handler can not find file, located in this path: '" + path + "'";
             throw new RuntimeException(exceptionMethod);
         }
@@ -86,6 +156,75 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
         return null;
     }
 
+    /**
+     * <p>
+     * Opens read-only channel to cached file, e.g. to serve it with {@link FileChannel#transferTo}.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return file channel, should be closed by caller
+     * @throws IOException when the file can not be opened
+     */
+    public FileChannel getChannel(CacheFileDescription cacheFileDescription) throws IOException {
+        String path = getFilePath(cacheFileDescription);
+
+        if (!new File(path).exists()) {
+            String exceptionMethod = "Cache data handler can not find file, located in this path: '" + path + "'";
+            throw new RuntimeException(exceptionMethod);
+        }
+
+        return FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+    }
+
+    /**
+     * <p>
+     * Writes cached file to the target channel without copying it through user space buffers
+     * when the platform supports it.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @param target               The target channel, e.g. socket channel of the response.
+     * @return number of transferred bytes
+     * @throws IOException when the file can not be read or the target can not be written
+     */
+    public long transferTo(CacheFileDescription cacheFileDescription, WritableByteChannel target) throws IOException {
+        final FileChannel channel = getChannel(cacheFileDescription);
+        try {
+            final long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                final long transferred = channel.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+            return position;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Get stream with cached file backed by memory mapped file, so the content is not copied
+     * to the heap while it is read.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return input stream
+     * @throws IOException when the file can not be mapped
+     */
+    public ByteBufferInputStream getMappedInputStream(CacheFileDescription cacheFileDescription) throws IOException {
+        final FileChannel channel = getChannel(cacheFileDescription);
+        try {
+            // Mapping stays valid after the channel is closed
+            return new ByteBufferInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            channel.close();
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -96,16 +235,195 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
      * @return OutputStream
      */
     public OutputStream getOutputSaveStream(CacheFileDescription cacheFileDescription) {
-        String path = getFilePath(cacheFileDescription);
+        final String path = getFilePath(cacheFileDescription);
+        final String guid = CacheEntryIndex.getGuid(cacheFileDescription);
+        if (cacheFileDescription.getCacheFileType() == CacheFileType.PageResource) {
+            return getOutputSaveStream(path, guid, ((CachedPageResourceDescription) cacheFileDescription).getResourceName(), null);
+        }
+        if (cacheFileDescription.getCacheFileType() == CacheFileType.Page && CacheFileNames.isHtmlPage((CachedPageDescription) cacheFileDescription)) {
+            final String manifestPath = PageResourceManifest.getManifestPath(getHtmlPageResourcesFolder((CachedPageDescription) cacheFileDescription));
+            return getOutputSaveStream(path, guid, null, manifestPath);
+        }
+        return getOutputSaveStream(path, guid, null, null);
+    }
+
+    /**
+     * <p>
+     * Prepare stream where file with resolved path will be stored, e.g. file received from a {@link CachePeerServer} peer.
+     * </p>
+     *
+     * @param path         The cache file path.
+     * @param guid         The document unique identifier the file belongs to.
+     * @param resourceName The html page resource name, null for other files.
+     * @param manifestPath The resources manifest path of html page, null for other files.
+     * @return OutputStream
+     */
+    OutputStream getOutputSaveStream(final String path, final String guid, String resourceName, final String manifestPath) {
         new File(path).getParentFile().mkdirs();
+        addToIndex(guid, path);
         try {
-            return new FileOutputStream(path);
-        } catch (java.io.FileNotFoundException e) {
+            // Written to temporary file first, so readers never see partially written file
+            final File tempFile = new File(path + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+            createTempFile(tempFile);
+            final OutputStream stream = new FileOutputStream(tempFile) {
+                private boolean _closed;
+
+                @Override
+                public void close() throws IOException {
+                    if (_closed) {
+                        return;
+                    }
+                    _closed = true;
+                    super.close();
+                    publish(tempFile, new File(path));
+                }
+            };
+            if (resourceName != null) {
+                return recordResource(resourceName, path, stream);
+            }
+            if (manifestPath != null) {
+                return new FilterOutputStream(stream) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.close();
+                        publishManifest(guid, manifestPath);
+                    }
+                };
+            }
+            return stream;
+        } catch (IOException e) {
             Logger.getAnonymousLogger().warning(e.toString());
         }
         return null;
     }
 
+    /**
+     * <p>
+     * Creates the empty temporary file, its folder is created again when it was evicted as an empty one meanwhile.
+     * Folders holding a temporary file are not evicted.
+     * </p>
+     *
+     * @param tempFile The temporary file.
+     * @throws IOException when the file can not be created
+     */
+    private static void createTempFile(File tempFile) throws IOException {
+        try {
+            Files.createFile(tempFile.toPath());
+        } catch (java.nio.file.NoSuchFileException e) {
+            Files.createDirectories(tempFile.getParentFile().toPath());
+            Files.createFile(tempFile.toPath());
+        }
+    }
+
+    /**
+     * <p>
+     * Wraps the stream of the page resource, so the resource is added to the manifest of its page once it is published.
+     * </p>
+     *
+     * @param name   The page resource name.
+     * @param path   The resource path.
+     * @param stream The resource stream.
+     * @return The recording stream
+     */
+    private OutputStream recordResource(final String name, String path, OutputStream stream) {
+        final String manifestPath = PageResourceManifest.getManifestPath(new File(path).getParent());
+        return new PageResourceManifest.RecordingOutputStream(stream) {
+            @Override
+            protected void onRecorded(long size, String hash) throws IOException {
+                addToManifest(manifestPath, new PageResourceManifest.Entry(name, size, PageResourceManifest.guessContentType(name), hash));
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Adds the resource to the manifest of its page. Resources are collected in memory and saved once with the page.
+     * The first resource of a render starts a new manifest and removes the one saved by previous render,
+     * resources of the page are listed from its folder until the page is saved again.
+     * </p>
+     */
+    private void addToManifest(String manifestPath, PageResourceManifest.Entry entry) throws IOException {
+        PageResourceManifest manifest = _pendingManifests.get(manifestPath);
+        if (manifest == null) {
+            if (_pendingManifests.size() >= MAX_PENDING_MANIFESTS) {
+                _pendingManifests.clear();
+            }
+            final PageResourceManifest created = new PageResourceManifest();
+            manifest = _pendingManifests.putIfAbsent(manifestPath, created);
+            if (manifest == null) {
+                manifest = created;
+                Files.deleteIfExists(Paths.get(manifestPath));
+            }
+        }
+        manifest.add(entry);
+    }
+
+    /**
+     * <p>
+     * Saves the manifest of resources collected for the page being published, pages without resources get an empty one.
+     * </p>
+     */
+    private void publishManifest(String guid, String manifestPath) throws IOException {
+        PageResourceManifest manifest = _pendingManifests.remove(manifestPath);
+        if (manifest == null) {
+            manifest = new PageResourceManifest();
+        }
+        addToIndex(guid, manifestPath);
+        final File tempFile = new File(manifestPath + "." + UUID.randomUUID() + TEMP_FILE_SUFFIX);
+        createTempFile(tempFile);
+        try {
+            Files.write(tempFile.toPath(), manifest.toByteArray());
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+        publish(tempFile, new File(manifestPath));
+    }
+
+    /**
+     * <p>
+     * Atomically replaces the target file with the temporary one.
+     * </p>
+     *
+     * @param tempFile The written temporary file.
+     * @param target   The final cache file.
+     * @throws IOException when the file can not be moved
+     */
+    private void publish(File tempFile, File target) throws IOException {
+        try {
+            try {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            if (!tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * <p>
+     * Sets options pages cached by this handler are rendered with, their fingerprint becomes part of
+     * cache file names, see {@link RenderOptionsFingerprint#getCacheSuffix(Object)}. Warm-up and live requests
+     * using the handler find the same entries, pages rendered with other options should be cached
+     * by another handler.
+     * </p>
+     *
+     * @param options The rendering options, null for names without fingerprint.
+     * @throws IllegalArgumentException when the options contain a value without stable representation
+     */
+    public void setRenderOptions(Object options) {
+        _optionsSuffix = RenderOptionsFingerprint.getCacheSuffix(options);
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -116,13 +434,10 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
      * @return System.String.
      */
     public String getHtmlPageResourcesFolder(CachedPageDescription cachedPageDescription) {
-        String resourcesForPageFolderName = _viewerConfig.getPageNamePrefix() +  cachedPageDescription.getPageNumber();
+        String resourcesForPageFolderName = _viewerConfig.getPageNamePrefix() +  cachedPageDescription.getPageNumber() + _optionsSuffix;
 
-        String docFolder = cachedPageDescription.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
-        }
-        String result = _viewerConfig.getCachePath() + docFolder + "\\html\\resources\\" + resourcesForPageFolderName;
+        String docFolder = _layout.getDocumentFolder(cachedPageDescription.getGuid());
+        String result = docFolder + File.separator + HTML_DIR_NAME + File.separator + RESOURCES_DIR_NAME + File.separator + resourcesForPageFolderName;
 
         if (result.contains("//"))
             result = result.replace("//", File.separator);
@@ -132,46 +447,71 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Gets the html page resources descriptions from the page resources manifest,
+     * the resources folder is listed only for pages cached without manifest.
+     * </p>
+     *
+     * @param cachedPageDescription The cached page description
+     * @return List of page resources descriptions
+     */
     public List<CachedPageResourceDescription> getHtmlPageResources(CachedPageDescription cachedPageDescription) {
         List<CachedPageResourceDescription> result = new ArrayList<CachedPageResourceDescription>();
         String resourcesFolder = getHtmlPageResourcesFolder(cachedPageDescription);
 
-        java.io.File file = new java.io.File(resourcesFolder);
-        final String[] resources;
-        if (file.isAbsolute()) {
-            List<String> entities = new ArrayList<String>();
-
-            final File[] files = file.listFiles();
-            if (files != null) {
-                for (File fl : files) {
-                    if (fl.isFile()) {
-                        entities.add(fl.getName());
-                    }
-                }
+        final PageResourceManifest manifest = getHtmlPageResourceManifest(cachedPageDescription);
+        if (manifest != null) {
+            for (PageResourceManifest.Entry entry : manifest.getEntries()) {
+                result.add(new CachedPageResourceDescription(cachedPageDescription, entry.getName()));
             }
-            resources = (String[]) entities.toArray();
-        } else {
-            List<String> entities = new ArrayList<String>();
-
-            final File[] files = new File(new File("").getAbsolutePath() + java.io.File.separator + resourcesFolder).listFiles();
-            if (files != null) {
-                for (File fl : files) {
-                    if (fl.isFile()) {
-                        entities.add(fl.getName());
-                    }
-                }
-            }
-            resources = (String[]) entities.toArray();
+            return result;
+        }
+
+        java.io.File file = new java.io.File(resourcesFolder);
+        if (!file.isAbsolute()) {
+            file = new File(new File("").getAbsolutePath() + java.io.File.separator + resourcesFolder);
         }
 
-        for (String resourcePath : resources) {
-            CachedPageResourceDescription resource = new CachedPageResourceDescription(cachedPageDescription, new File(resourcePath).getName());
-            result.add(resource);
+        final File[] files = file.listFiles();
+        if (files != null) {
+            for (File fl : files) {
+                if (fl.isFile() && !fl.getName().endsWith(TEMP_FILE_SUFFIX)) {
+                    result.add(new CachedPageResourceDescription(cachedPageDescription, fl.getName()));
+                }
+            }
         }
 
         return result;
     }
 
+    /**
+     * <p>
+     * Gets the manifest of html page resources with their sizes, content types and hashes.
+     * </p>
+     *
+     * @param cachedPageDescription The cached page description
+     * @return The manifest or null if the page was cached without manifest
+     */
+    public PageResourceManifest getHtmlPageResourceManifest(CachedPageDescription cachedPageDescription) {
+        final File manifestFile = new File(PageResourceManifest.getManifestPath(getHtmlPageResourcesFolder(cachedPageDescription)));
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+        try {
+            final InputStream input = new FileInputStream(manifestFile);
+            try {
+                return PageResourceManifest.read(new BufferedInputStream(input));
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            Logger.getAnonymousLogger().warning("Can't read page resources manifest " + manifestFile + ": " + e);
+            return null;
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -194,128 +534,177 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
      * @param olderThan The time interval.
      */
     public void clearCache(long olderThan) {
-        String cachePath = _viewerConfig.getCachePath();
-        if (!new java.io.File(cachePath).isAbsolute()) {
-            cachePath = new File("").getAbsolutePath() + java.io.File.separator + cachePath;
-        }
-        if (!new File(cachePath).exists()) {
-            return;
-        }
-
-        clearCacheNoChecks(olderThan);
+        final CacheEvictor.Result result = _evictor.evictOlderThan(olderThan);
+        Logger.getAnonymousLogger().fine("Cache cleared: " + result);
     }
 
 
     public void clearCache() {
-        if (!new File(_viewerConfig.getCachePath()).exists())
-            return;
+        // Files written while the cache is being cleared survive and are indexed again
+        _entryIndex.clear();
+        _entryIndex.setComplete(true);
+        clearCache(0L);
+    }
 
-        clearCacheNoChecks(0L);
+    /**
+     * <p>
+     * Starts background eviction of least recently used cache files,
+     * which runs when the cache size exceeds the high watermark.
+     * </p>
+     *
+     * @param period        The check period in milliseconds.
+     * @param highWatermark Cache size in bytes which triggers eviction.
+     * @param lowWatermark  Cache size in bytes to evict down to.
+     */
+    public void startEviction(long period, long highWatermark, long lowWatermark) {
+        _evictor.start(period, highWatermark, lowWatermark);
     }
 
+    /**
+     * <p>
+     * Stops background eviction.
+     * </p>
+     */
+    public void stopEviction() {
+        _evictor.stop();
+    }
 
     /**
      * <p>
-     * Clears cache files related to specified document.
+     * Gets the evictor working on the cache folder, e.g. to run eviction with statistics.
+     * </p>
+     *
+     * @return The cache evictor.
+     */
+    public CacheEvictor getEvictor() {
+        return _evictor;
+    }
+
+    /**
+     * <p>
+     * Clears cache files related to specified document. Indexed files of the document are deleted,
+     * its folder is walked only while the entry index is not complete.
      * </p>
      *
      * @param guid The file unique identifier, full path for local storage e.g. c:\\storage\\document.txt,
      *             relative path e.g document.txt, url e.g. http://site.com/document.txt.
      */
     public void clearCache(String guid) {
-        for (String str : _patternsToReplace) {
-            guid = guid.replace(str, "");
+        final CacheEntryIndex index = _entryIndex;
+        final boolean complete = index.isComplete();
+        final Set<String> entries = index.remove(guid);
+        for (String path : entries) {
+            final File file = new File(path);
+            if (file.exists() && !file.delete()) {
+                Logger.getAnonymousLogger().warning("Can't delete cache file " + path);
+            }
         }
-        String fullFolderPath = _viewerConfig.getCachePath() + guid;
 
+        String fullFolderPath = _layout.getDocumentFolder(guid);
+        if (complete) {
+            // All files of the document were indexed, only their emptied folders are left
+            deleteEmptyFolders(entries, Paths.get(getIndexPath(fullFolderPath)));
+            return;
+        }
+
+        // The index misses entries written before it was loaded, e.g. before restart,
+        // so the whole document folder is cleared
         if (!new File(fullFolderPath).exists())
             return;
 
-        File[] files = new File("").listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isFile();
-            }
-        });
-        File[] directories = new File("").listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isDirectory();
-            }
-        });
+        new CacheEvictor(Paths.get(fullFolderPath), 1).evictOlderThan(0L);
+        new File(fullFolderPath).delete();
+    }
 
-        for (File fileInfo : files) {
-            try {
-                if (fileInfo.exists()) {
-                    //                    fileInfo.setReadOnly(false);
-                    fileInfo.delete();
+    private static void deleteEmptyFolders(Set<String> paths, Path documentFolder) {
+        for (String path : paths) {
+            Path folder = Paths.get(path).getParent();
+            while (folder != null && folder.startsWith(documentFolder)) {
+                try {
+                    Files.deleteIfExists(folder);
+                } catch (IOException e) {
+                    //NOTE: not empty
+                    break;
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
-                //NOTE: ignore
+                folder = folder.getParent();
             }
         }
+    }
 
-        for (File dirInfo : directories) {
-            try {
-                if (dirInfo.exists()) {
-                    dirInfo.delete();
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-                //NOTE: ignore
-            }
+    private static boolean isEmptyFolder(Path folder) {
+        if (!Files.isDirectory(folder)) {
+            return true;
         }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            return !stream.iterator().hasNext();
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-//            rootDirInfo.delete(true);
+    /**
+     * <p>
+     * Adds the cache file to the entry index by its absolute path, the form in which the evictor reports removed files.
+     * </p>
+     */
+    private void addToIndex(String guid, String path) {
+        _entryIndex.add(guid, getIndexPath(path));
     }
 
-    private void clearCacheNoChecks(long olderThan) {
-        Date now = GregorianCalendar.getInstance().getTime();
-        Date startFrom = new Date(now.getTime() - olderThan);
+    private static String getIndexPath(String path) {
+        return Paths.get(path).toAbsolutePath().normalize().toString();
+    }
 
-        String rootDirInfo = _viewerConfig.getCachePath();
+    /**
+     * <p>
+     * Gets the index of cache entries produced for each document.
+     * </p>
+     *
+     * @return The cache entry index.
+     */
+    public CacheEntryIndex getEntryIndex() {
+        return _entryIndex;
+    }
 
-        File[] files = new File("").listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isFile();
-            }
-        });
-        File[] directories = new File("").listFiles(new FileFilter() {
-            @Override
-            public boolean accept(File pathname) {
-                return pathname.isDirectory();
-            }
-        });
+    /**
+     * <p>
+     * Sets the index of cache entries produced for each document,
+     * e.g. one persisted in the cache folder.
+     * </p>
+     *
+     * @param entryIndex The cache entry index.
+     */
+    public void setEntryIndex(CacheEntryIndex entryIndex) {
+        if (entryIndex == null)
+            throw new IllegalArgumentException("entryIndex");
+        _entryIndex = entryIndex;
+    }
 
-        for (File dirInfo : directories) {
-            try {
-                // Can't get creation time
-                final Date lastModified = new Date(new java.io.File(dirInfo.getName()).lastModified());
-                if (dirInfo.exists() && lastModified.before(startFrom) || olderThan == 0) {
-                    dirInfo.delete();
-                }
-            } catch (RuntimeException e) {
-                e.printStackTrace();
-                //NOTE: ignore
-            }
+    /**
+     * <p>
+     * Gets the absolute path of the cache folder.
+     * </p>
+     *
+     * @return The cache folder path
+     */
+    public Path getCacheRoot() {
+        String cachePath = _viewerConfig.getCachePath();
+        if (!new java.io.File(cachePath).isAbsolute()) {
+            cachePath = new File("").getAbsolutePath() + java.io.File.separator + cachePath;
         }
+        return Paths.get(cachePath);
+    }
 
-        for (File fileInfo : files) {
-            try {
-                // Can't get creation time and change readonly
-                final Date lastModified = new Date(fileInfo.lastModified());
-
-                if (fileInfo.exists() && lastModified.before(startFrom) || olderThan == 0) {
-//                    new java.io.File(fileInfo.getFullName()).setWritable(true); //fileInfo.setReadOnly(false);
-                    fileInfo.delete();
-                }
-            } catch (RuntimeException e) {
-                e.printStackTrace();
-                //NOTE: ignore
-            }
-        }
+    /**
+     * <p>
+     * Gets the cache folder of the document as placed by the cache layout.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The document folder path
+     */
+    String getDocumentFolder(String guid) {
+        return _layout.getDocumentFolder(guid);
     }
 
     /**
@@ -353,7 +742,7 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
             throw new RuntimeException("document is null");
         }
 
-        String documentName = document.getName().replaceAll("\\.\\w+$", "." + document.getOutputExtension());
+        String documentName = document.getName().replaceAll("\\.\\w+$", _optionsSuffix + CacheFileNames.normalizeExtension(document.getOutputExtension()));
         String documentFolder = buildCachedDocumentFolderPath(document);
         return documentFolder + File.separator + documentName;
     }
@@ -367,21 +756,7 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
      * @return System.String.
      */
     private String buildCachedDocumentFolderPath(CachedDocumentDescription cachedPageDescription) {
-
-
-        String docFolder = cachedPageDescription.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
-        }
-
-//        switch (_viewerConfig.getEngineType()) {
-//            case EngineTypes.Image:
-//                return getPath().combine(_viewerConfig.getCachePath(), docFolder, Constants.IMAGE_DIR_NAME);
-//
-//            case EngineTypes.Html:
-//                return getPath().combine(_viewerConfig.getCachePath(), docFolder, Constants.HTML_DIR_NAME);
-//        }
-        return null;
+        return _layout.getDocumentFolder(cachedPageDescription.getGuid());
     }
 
     /**
@@ -399,11 +774,8 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
             throw new RuntimeException("attach is null");
         }
 
-        String docFolder = attach.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
-        }
-        return _viewerConfig.getCachePath() +  docFolder + "attachments" + attach.getAttachmentName();
+        String docFolder = _layout.getDocumentFolder(attach.getGuid());
+        return docFolder + File.separator + "attachments" + File.separator + attach.getAttachmentName();
     }
 
     private String getResourceFilePath(CacheFileDescription cacheFileDescription) {
@@ -414,7 +786,7 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
         }
 
         String resourcesPath = getHtmlPageResourcesFolder(resourceDescription.getCachedPageDescription());
-        return resourcesPath +  resourceDescription.getResourceName();
+        return resourcesPath + File.separator + resourceDescription.getResourceName();
     }
 
     private String getPageFilePath(CacheFileDescription cacheFileDescription) {
@@ -426,7 +798,7 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
 
         String fileName = buildPageFileName(pageDescription);
         String folder = buildCachedPageFolderPath(pageDescription);
-        return folder + fileName;
+        return folder + File.separator + fileName;
     }
 
     /**
@@ -438,15 +810,13 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
      * @return System.String.
      */
     private String buildPageFileName(CachedPageDescription cachedPageDescription) {
-//        switch (_viewerConfig.getEngineType()) {
-//            case EngineTypes.Image:
-//                String qualitySuffix = getQualitySuffix(cachedPageDescription);
-//                return StringExtensions.format("{0}{1}{2}{3}", _viewerConfig.getPageNamePrefix(), Operators.boxing(cachedPageDescription.getPageNumber()), qualitySuffix, cachedPageDescription.getOutputExtension());
-//
-//            case EngineTypes.Html:
-//                return StringExtensions.format("{0}{1}.html", _viewerConfig.getPageNamePrefix(), Operators.boxing(cachedPageDescription.getPageNumber()));
-//        }
-        return null;
+        final String optionsSuffix = _optionsSuffix;
+        if (CacheFileNames.isHtmlPage(cachedPageDescription)) {
+            return _viewerConfig.getPageNamePrefix() + cachedPageDescription.getPageNumber() + optionsSuffix + HTML_EXTENSION;
+        }
+
+        String qualitySuffix = CacheFileNames.getQualitySuffix(cachedPageDescription);
+        return _viewerConfig.getPageNamePrefix() + cachedPageDescription.getPageNumber() + qualitySuffix + optionsSuffix + CacheFileNames.normalizeExtension(cachedPageDescription.getOutputExtension());
     }
 
     /**
@@ -458,33 +828,13 @@ public class LocalCacheDataHandler implements ICacheDataHandler {
      * @return System.String.
      */
     private String buildCachedPageFolderPath(CachedPageDescription cachedPageDescription) {
+        String docFolder = _layout.getDocumentFolder(cachedPageDescription.getGuid());
 
-        String docFolder = cachedPageDescription.getGuid();
-        for (String str : _patternsToReplace) {
-            docFolder = docFolder.replace(str, "");
+        if (CacheFileNames.isHtmlPage(cachedPageDescription)) {
+            return docFolder + File.separator + HTML_DIR_NAME;
         }
-
-//        switch (_viewerConfig.getEngineType()) {
-//            case EngineTypes.Image:
-//                String dimmensionsSubFolder = getDimensionsSubFolder(cachedPageDescription);
-//                return getPath().combine(_viewerConfig.getCachePath(), docFolder, Constants.IMAGE_DIR_NAME, dimmensionsSubFolder);
-//
-//            case EngineTypes.Html:
-//                return getPath().combine(_viewerConfig.getCachePath(), docFolder, Constants.HTML_DIR_NAME);
-//        }
-        return null;
-    }
-
-    /**
-     * <p>
-     * Gets the quality option suffix eg. -90
-     * </p>
-     *
-     * @param cachedPageDescription The cached page description.
-     * @return The quality suffix.
-     */
-    private String getQualitySuffix(CachedPageDescription cachedPageDescription) {
-        return cachedPageDescription.getJpegQuality() != 90 && ".jpg".equals(cachedPageDescription.getOutputExtension()) ? "-" + cachedPageDescription.getJpegQuality() : "";
+        String dimmensionsSubFolder = getDimensionsSubFolder(cachedPageDescription);
+        return docFolder + File.separator + IMAGE_DIR_NAME + File.separator + dimmensionsSubFolder;
     }
 
     /**
@@ -0,0 +1,213 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Bounded in-process cache of cached file contents, used as the first tier in front of an
+ * {@code IFileStorage} backed cache. Entries are evicted in least recently used order once
+ * the total size of stored bytes exceeds the configured budget.
+ * </p>
+ */
+public class MemoryPageCache implements PageCache {
+    /**
+     * <p>
+     * Maximum total size of cached bytes
+     * </p>
+     */
+    private final long _maxSize;
+
+    /**
+     * <p>
+     * Maximum size of a single entry, bigger entries are not cached
+     * </p>
+     */
+    private final long _maxEntrySize;
+
+    /**
+     * <p>
+     * Entries in access order, eldest first
+     * </p>
+     */
+    private final LinkedHashMap<String, byte[]> _entries = new LinkedHashMap<String, byte[]>(256, 0.75f, true);
+
+    private long _size;
+    private long _hits;
+    private long _misses;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code MemoryPageCache} class.
+     * </p>
+     *
+     * @param maxSize      The maximum total size of cached bytes.
+     * @param maxEntrySize The maximum size of a single cached entry.
+     */
+    public MemoryPageCache(long maxSize, long maxEntrySize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize");
+        if (maxEntrySize <= 0 || maxEntrySize > maxSize)
+            throw new IllegalArgumentException("maxEntrySize");
+
+        _maxSize = maxSize;
+        _maxEntrySize = maxEntrySize;
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code MemoryPageCache} class,
+     * single entry may take up to one eighth of the budget.
+     * </p>
+     *
+     * @param maxSize The maximum total size of cached bytes.
+     */
+    public MemoryPageCache(long maxSize) {
+        this(maxSize, Math.max(1, maxSize / 8));
+    }
+
+    /**
+     * <p>
+     * Gets cached content. Returned array is shared and must not be modified.
+     * </p>
+     *
+     * @param key The resolved cache file path.
+     * @return content or null if the entry is not cached
+     */
+    public synchronized byte[] get(String key) {
+        byte[] content = _entries.get(key);
+        if (content == null) {
+            _misses++;
+        } else {
+            _hits++;
+        }
+        return content;
+    }
+
+    /**
+     * <p>
+     * Gets stream with cached content.
+     * </p>
+     *
+     * @param key The resolved cache file path.
+     * @return stream or null if the entry is not cached
+     */
+    public InputStream getInputStream(String key) {
+        final byte[] content = get(key);
+        return content == null ? null : new ByteArrayInputStream(content);
+    }
+
+    /**
+     * <p>
+     * Checks whether the entry is cached without touching its recency.
+     * </p>
+     *
+     * @param key The resolved cache file path.
+     * @return true if the entry is cached
+     */
+    public synchronized boolean contains(String key) {
+        return _entries.containsKey(key);
+    }
+
+    /**
+     * <p>
+     * Puts content into the cache. The array is stored as is and must not be modified afterwards.
+     * </p>
+     *
+     * @param key     The resolved cache file path.
+     * @param content The content.
+     * @return true if the content was cached, false if it is too big
+     */
+    public synchronized boolean put(String key, byte[] content) {
+        if (key == null || content == null)
+            return false;
+
+        if (content.length > _maxEntrySize) {
+            remove(key);
+            return false;
+        }
+
+        byte[] previous = _entries.put(key, content);
+        if (previous != null) {
+            _size -= previous.length;
+        }
+        _size += content.length;
+
+        Iterator<Map.Entry<String, byte[]>> iterator = _entries.entrySet().iterator();
+        while (_size > _maxSize && iterator.hasNext()) {
+            Map.Entry<String, byte[]> eldest = iterator.next();
+            _size -= eldest.getValue().length;
+            iterator.remove();
+        }
+        return true;
+    }
+
+    /**
+     * <p>
+     * Removes the entry from the cache.
+     * </p>
+     *
+     * @param key The resolved cache file path.
+     */
+    public synchronized void remove(String key) {
+        byte[] previous = _entries.remove(key);
+        if (previous != null) {
+            _size -= previous.length;
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all entries which keys start with specified prefix, e.g. all entries of a document.
+     * </p>
+     *
+     * @param prefix The key prefix.
+     */
+    public synchronized void removeByPrefix(String prefix) {
+        Iterator<Map.Entry<String, byte[]>> iterator = _entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, byte[]> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                _size -= entry.getValue().length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Removes all entries.
+     * </p>
+     */
+    public synchronized void clear() {
+        _entries.clear();
+        _size = 0;
+    }
+
+    public synchronized long getSize() {
+        return _size;
+    }
+
+    public synchronized int getCount() {
+        return _entries.size();
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    public long getMaxSize() {
+        return _maxSize;
+    }
+
+    public long getMaxEntrySize() {
+        return _maxEntrySize;
+    }
+}
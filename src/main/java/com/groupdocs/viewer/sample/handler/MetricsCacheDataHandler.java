@@ -0,0 +1,383 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.domain.cache.*;
+import com.groupdocs.viewer.handler.cache.ICacheDataHandler;
+
+import javax.management.*;
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Cache data handler decorator which records hit and miss counts, bytes read and written and latency
+ * histograms of {@code exists}, {@code getInputStream} and {@code getOutputSaveStream} per cache file type.
+ * Metrics are exposed via JMX, see {@link #registerMBean(String)}, and passed to registered
+ * {@link CacheMetricsSink}s.
+ * </p>
+ * <p>
+ * Reads and writes are recorded when their streams are closed: read latency is the time spent in
+ * {@code getInputStream}, write latency is the time spent opening and closing the save stream, when
+ * the cache handler stores the content.
+ * </p>
+ */
+public class MetricsCacheDataHandler implements ICacheDataHandler, CacheMetricsMXBean {
+    private static final Logger LOGGER = Logger.getLogger(MetricsCacheDataHandler.class.getName());
+    private static final String OBJECT_NAME_PREFIX = "com.groupdocs.viewer.sample:type=CacheMetrics,name=";
+
+    private static final String EXISTS = "exists";
+    private static final String READ = "read";
+    private static final String WRITE = "write";
+    private static final String[] OPERATIONS = {EXISTS, READ, WRITE};
+    private static final int EXISTS_SLOT = 0;
+    private static final int READ_SLOT = 1;
+    private static final int WRITE_SLOT = 2;
+    private static final String[] TYPE_NAMES = {"Page", "PageResource", "Attachment", "Document", "Other"};
+    private static final int[] PERCENTILES = {50, 90, 99};
+
+    private final ICacheDataHandler _cacheDataHandler;
+    private final List<CacheMetricsSink> _sinks = new CopyOnWriteArrayList<CacheMetricsSink>();
+
+    private final AtomicLong[] _hits = newCounters();
+    private final AtomicLong[] _misses = newCounters();
+    private final AtomicLong[] _bytesRead = newCounters();
+    private final AtomicLong[] _bytesWritten = newCounters();
+
+    /**
+     * <p>
+     * Latency histograms by operation and cache file type
+     * </p>
+     */
+    private final LatencyHistogram[][] _latencies = new LatencyHistogram[OPERATIONS.length][TYPE_NAMES.length];
+
+    private ObjectName _objectName;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code MetricsCacheDataHandler} class.
+     * </p>
+     *
+     * @param cacheDataHandler The measured cache data handler.
+     */
+    public MetricsCacheDataHandler(ICacheDataHandler cacheDataHandler) {
+        if (cacheDataHandler == null)
+            throw new IllegalArgumentException("cacheDataHandler");
+
+        _cacheDataHandler = cacheDataHandler;
+        for (int operation = 0; operation < OPERATIONS.length; operation++) {
+            for (int type = 0; type < TYPE_NAMES.length; type++) {
+                _latencies[operation][type] = new LatencyHistogram();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Adds sink receiving every recorded operation.
+     * </p>
+     *
+     * @param sink The metrics sink.
+     */
+    public void addSink(CacheMetricsSink sink) {
+        if (sink == null)
+            throw new IllegalArgumentException("sink");
+        _sinks.add(sink);
+    }
+
+    public void removeSink(CacheMetricsSink sink) {
+        _sinks.remove(sink);
+    }
+
+    /**
+     * <p>
+     * Registers the metrics in the platform MBean server.
+     * </p>
+     *
+     * @param name The name distinguishing this cache, e.g. {@code local}.
+     * @return The object name of the registered MBean
+     * @throws JMException when the MBean can not be registered
+     */
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (name == null || name.isEmpty())
+            throw new IllegalArgumentException("name");
+        unregisterMBean();
+
+        final ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, CacheMetricsMXBean.class, true), objectName);
+        _objectName = objectName;
+        return objectName;
+    }
+
+    /**
+     * <p>
+     * Unregisters the metrics from the platform MBean server.
+     * </p>
+     */
+    public synchronized void unregisterMBean() {
+        if (_objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+        } catch (JMException e) {
+            LOGGER.log(Level.WARNING, "Can't unregister " + _objectName, e);
+        }
+        _objectName = null;
+    }
+
+    /**
+     * <p>
+     * Gets latency histogram of the operation.
+     * </p>
+     *
+     * @param operation     The operation: {@code exists}, {@code read} or {@code write}.
+     * @param cacheFileType The cache file type, e.g. {@code CacheFileType.Page}.
+     * @return The histogram
+     */
+    public LatencyHistogram getLatency(String operation, int cacheFileType) {
+        return _latencies[getOperationSlot(operation)][getTypeSlot(cacheFileType)];
+    }
+
+    public boolean exists(CacheFileDescription cacheFileDescription) {
+        final long start = System.nanoTime();
+        final boolean exists = _cacheDataHandler.exists(cacheFileDescription);
+        record(EXISTS_SLOT, getTypeSlot(cacheFileDescription.getCacheFileType()), exists, System.nanoTime() - start, 0);
+        return exists;
+    }
+
+    public InputStream getInputStream(CacheFileDescription cacheFileDescription) {
+        final int type = getTypeSlot(cacheFileDescription.getCacheFileType());
+        final long start = System.nanoTime();
+        final InputStream stream;
+        try {
+            stream = _cacheDataHandler.getInputStream(cacheFileDescription);
+        } catch (RuntimeException e) {
+            record(READ_SLOT, type, false, System.nanoTime() - start, 0);
+            throw e;
+        }
+        final long duration = System.nanoTime() - start;
+        if (stream == null) {
+            record(READ_SLOT, type, false, duration, 0);
+            return null;
+        }
+
+        return new FilterInputStream(stream) {
+            private long _bytes;
+            private boolean _closed;
+
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b >= 0) {
+                    _bytes++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int read = super.read(b, off, len);
+                if (read > 0) {
+                    _bytes += read;
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                super.close();
+                if (!_closed) {
+                    _closed = true;
+                    record(READ_SLOT, type, true, duration, _bytes);
+                }
+            }
+        };
+    }
+
+    public OutputStream getOutputSaveStream(CacheFileDescription cacheFileDescription) {
+        final int type = getTypeSlot(cacheFileDescription.getCacheFileType());
+        final long start = System.nanoTime();
+        final OutputStream stream = _cacheDataHandler.getOutputSaveStream(cacheFileDescription);
+        final long openDuration = System.nanoTime() - start;
+        if (stream == null) {
+            return null;
+        }
+
+        return new FilterOutputStream(stream) {
+            private long _bytes;
+            private boolean _closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                _bytes++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                _bytes += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (_closed) {
+                    return;
+                }
+                _closed = true;
+                final long closeStart = System.nanoTime();
+                out.close();
+                record(WRITE_SLOT, type, true, openDuration + System.nanoTime() - closeStart, _bytes);
+            }
+        };
+    }
+
+    public String getHtmlPageResourcesFolder(CachedPageDescription cachedPageDescription) {
+        return _cacheDataHandler.getHtmlPageResourcesFolder(cachedPageDescription);
+    }
+
+    public List<CachedPageResourceDescription> getHtmlPageResources(CachedPageDescription cachedPageDescription) {
+        return _cacheDataHandler.getHtmlPageResources(cachedPageDescription);
+    }
+
+    public Date getLastModificationDate(CacheFileDescription cacheFileDescription) {
+        return _cacheDataHandler.getLastModificationDate(cacheFileDescription);
+    }
+
+    public void clearCache() {
+        _cacheDataHandler.clearCache();
+    }
+
+    public void clearCache(String guid) {
+        _cacheDataHandler.clearCache(guid);
+    }
+
+    public String getFilePath(CacheFileDescription cacheFileDescription) {
+        return _cacheDataHandler.getFilePath(cacheFileDescription);
+    }
+
+    public double getHitRatio() {
+        long hits = 0;
+        long total = 0;
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            hits += _hits[type].get();
+            total += _hits[type].get() + _misses[type].get();
+        }
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public Map<String, Long> getHits() {
+        return toMap(_hits);
+    }
+
+    public Map<String, Long> getMisses() {
+        return toMap(_misses);
+    }
+
+    public Map<String, Long> getBytesRead() {
+        return toMap(_bytesRead);
+    }
+
+    public Map<String, Long> getBytesWritten() {
+        return toMap(_bytesWritten);
+    }
+
+    public Map<String, Long> getLatencyPercentiles() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (int operation = 0; operation < OPERATIONS.length; operation++) {
+            for (int type = 0; type < TYPE_NAMES.length; type++) {
+                final LatencyHistogram histogram = _latencies[operation][type];
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                final String prefix = OPERATIONS[operation] + "." + TYPE_NAMES[type] + ".";
+                for (int percentile : PERCENTILES) {
+                    result.put(prefix + "p" + percentile, histogram.getPercentile(percentile));
+                }
+                result.put(prefix + "max", histogram.getMax());
+            }
+        }
+        return result;
+    }
+
+    public void reset() {
+        for (int type = 0; type < TYPE_NAMES.length; type++) {
+            _hits[type].set(0);
+            _misses[type].set(0);
+            _bytesRead[type].set(0);
+            _bytesWritten[type].set(0);
+            for (int operation = 0; operation < OPERATIONS.length; operation++) {
+                _latencies[operation][type].reset();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "hitRatio=" + getHitRatio() + ", hits=" + getHits() + ", misses=" + getMisses()
+                + ", bytesRead=" + getBytesRead() + ", bytesWritten=" + getBytesWritten();
+    }
+
+    private void record(int operation, int type, boolean hit, long durationNanos, long bytes) {
+        _latencies[operation][type].record(durationNanos);
+        if (operation == WRITE_SLOT) {
+            _bytesWritten[type].addAndGet(bytes);
+        } else {
+            (hit ? _hits : _misses)[type].incrementAndGet();
+            if (operation == READ_SLOT) {
+                _bytesRead[type].addAndGet(bytes);
+            }
+        }
+
+        for (CacheMetricsSink sink : _sinks) {
+            try {
+                sink.record(OPERATIONS[operation], TYPE_NAMES[type], hit, durationNanos, bytes);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Cache metrics sink failed", e);
+            }
+        }
+    }
+
+    private static int getOperationSlot(String operation) {
+        for (int slot = 0; slot < OPERATIONS.length; slot++) {
+            if (OPERATIONS[slot].equals(operation)) {
+                return slot;
+            }
+        }
+        throw new IllegalArgumentException("operation");
+    }
+
+    private static int getTypeSlot(int cacheFileType) {
+        switch (cacheFileType) {
+            case CacheFileType.Page:
+                return 0;
+            case CacheFileType.PageResource:
+                return 1;
+            case CacheFileType.Attachment:
+                return 2;
+            case CacheFileType.Document:
+                return 3;
+        }
+        return 4;
+    }
+
+    private static AtomicLong[] newCounters() {
+        AtomicLong[] counters = new AtomicLong[TYPE_NAMES.length];
+        for (int type = 0; type < counters.length; type++) {
+            counters[type] = new AtomicLong();
+        }
+        return counters;
+    }
+
+    private static Map<String, Long> toMap(AtomicLong[] counters) {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int type = 0; type < counters.length; type++) {
+            result.put(TYPE_NAMES[type], counters[type].get());
+        }
+        return result;
+    }
+}
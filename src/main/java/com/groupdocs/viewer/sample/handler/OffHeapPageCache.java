@@ -0,0 +1,341 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * Page cache which keeps cached contents outside of the Java heap, in direct buffer slabs or in slabs of a
+ * memory mapped arena file, so page blobs do not add to garbage collection work. Contents are appended to
+ * the current slab; when it is full the next slab in the ring is reused, which evicts all its entries at once.
+ * Only the index of entry locations lives on the heap.
+ * </p>
+ * <p>
+ * Cached entries are read through streams over the slab without copying them to the heap first.
+ * Each slab has a generation which changes when the slab is reused; a stream detects that its slab was
+ * reused while it was being read and fails with {@code IOException} instead of returning other content.
+ * Removed entries keep their space until their slab is reused.
+ * </p>
+ */
+public class OffHeapPageCache implements PageCache, Closeable {
+    private static final int MIN_SLABS = 2;
+
+    private final ByteBuffer[] _slabs;
+    private final AtomicLongArray _generations;
+    private final int _slabSize;
+    private final long _maxEntrySize;
+    private final FileChannel _arena;
+    private final ConcurrentMap<String, Location> _entries = new ConcurrentHashMap<String, Location>();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+
+    private int _currentSlab;
+    private int _writeOffset;
+    private long _size;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code OffHeapPageCache} class with direct buffer slabs.
+     * </p>
+     *
+     * @param slabCount    Number of slabs, at least 2.
+     * @param slabSize     Size of a slab in bytes.
+     * @param maxEntrySize Maximum size of a single entry, at most the slab size.
+     */
+    public OffHeapPageCache(int slabCount, int slabSize, long maxEntrySize) {
+        checkArguments(slabCount, slabSize, maxEntrySize);
+
+        _slabSize = slabSize;
+        _maxEntrySize = maxEntrySize;
+        _arena = null;
+        _slabs = new ByteBuffer[slabCount];
+        for (int n = 0; n < slabCount; n++) {
+            _slabs[n] = ByteBuffer.allocateDirect(slabSize);
+        }
+        _generations = new AtomicLongArray(slabCount);
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code OffHeapPageCache} class with slabs mapped from the arena file,
+     * which lets the operating system page out cold contents. Previous content of the file is discarded.
+     * </p>
+     *
+     * @param arenaFile    The arena file, e.g. on a local SSD.
+     * @param slabCount    Number of slabs, at least 2.
+     * @param slabSize     Size of a slab in bytes.
+     * @param maxEntrySize Maximum size of a single entry, at most the slab size.
+     * @throws IOException when the arena file can not be mapped
+     */
+    public OffHeapPageCache(File arenaFile, int slabCount, int slabSize, long maxEntrySize) throws IOException {
+        if (arenaFile == null)
+            throw new IllegalArgumentException("arenaFile");
+        checkArguments(slabCount, slabSize, maxEntrySize);
+
+        _slabSize = slabSize;
+        _maxEntrySize = maxEntrySize;
+        _arena = FileChannel.open(arenaFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        _slabs = new ByteBuffer[slabCount];
+        try {
+            for (int n = 0; n < slabCount; n++) {
+                _slabs[n] = _arena.map(FileChannel.MapMode.READ_WRITE, (long) n * slabSize, slabSize);
+            }
+        } catch (IOException e) {
+            _arena.close();
+            throw e;
+        }
+        _generations = new AtomicLongArray(slabCount);
+    }
+
+    private static void checkArguments(int slabCount, int slabSize, long maxEntrySize) {
+        if (slabCount < MIN_SLABS)
+            throw new IllegalArgumentException("slabCount");
+        if (slabSize <= 0)
+            throw new IllegalArgumentException("slabSize");
+        if (maxEntrySize <= 0 || maxEntrySize > slabSize)
+            throw new IllegalArgumentException("maxEntrySize");
+    }
+
+    public InputStream getInputStream(String key) {
+        final Location location = _entries.get(key);
+        if (location == null || _generations.get(location._slab) != location._generation) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        return new SlabInputStream(location);
+    }
+
+    public boolean contains(String key) {
+        final Location location = _entries.get(key);
+        return location != null && _generations.get(location._slab) == location._generation;
+    }
+
+    public synchronized boolean put(String key, byte[] content) {
+        if (key == null || content == null)
+            return false;
+
+        if (content.length > _maxEntrySize) {
+            remove(key);
+            return false;
+        }
+
+        if (_writeOffset + content.length > _slabSize) {
+            rotate();
+        }
+
+        final ByteBuffer target = _slabs[_currentSlab].duplicate();
+        target.position(_writeOffset);
+        target.put(content);
+
+        final Location previous = _entries.put(key, new Location(_currentSlab, _generations.get(_currentSlab), _writeOffset, content.length));
+        if (previous != null) {
+            _size -= previous._length;
+        }
+        _size += content.length;
+        _writeOffset += content.length;
+        return true;
+    }
+
+    public synchronized void remove(String key) {
+        final Location previous = _entries.remove(key);
+        if (previous != null) {
+            _size -= previous._length;
+        }
+    }
+
+    public synchronized void removeByPrefix(String prefix) {
+        final Iterator<Map.Entry<String, Location>> iterator = _entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Location> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                _size -= entry.getValue()._length;
+                iterator.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        _entries.clear();
+        // Streams still reading removed entries must notice the slabs are written again
+        for (int n = 0; n < _slabs.length; n++) {
+            _generations.incrementAndGet(n);
+        }
+        _currentSlab = 0;
+        _writeOffset = 0;
+        _size = 0;
+    }
+
+    public long getMaxEntrySize() {
+        return _maxEntrySize;
+    }
+
+    /**
+     * <p>
+     * Gets the total size of cached entries, space of removed entries is not included.
+     * </p>
+     */
+    public synchronized long getSize() {
+        return _size;
+    }
+
+    public int getCount() {
+        return _entries.size();
+    }
+
+    public long getHits() {
+        return _hits.get();
+    }
+
+    public long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * <p>
+     * Gets the total capacity of all slabs in bytes.
+     * </p>
+     */
+    public long getCapacity() {
+        return (long) _slabs.length * _slabSize;
+    }
+
+    /**
+     * <p>
+     * Closes the arena file. Direct buffer slabs are released when the cache is garbage collected.
+     * </p>
+     */
+    @Override
+    public void close() throws IOException {
+        clear();
+        if (_arena != null) {
+            _arena.close();
+        }
+    }
+
+    /**
+     * <p>
+     * Moves writing to the next slab in the ring, evicting its entries.
+     * </p>
+     */
+    private void rotate() {
+        _currentSlab = (_currentSlab + 1) % _slabs.length;
+        _writeOffset = 0;
+        _generations.incrementAndGet(_currentSlab);
+
+        final Iterator<Location> iterator = _entries.values().iterator();
+        while (iterator.hasNext()) {
+            final Location location = iterator.next();
+            if (location._slab == _currentSlab) {
+                _size -= location._length;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Location of cached content
+     * </p>
+     */
+    private static class Location {
+        private final int _slab;
+        private final long _generation;
+        private final int _offset;
+        private final int _length;
+
+        Location(int slab, long generation, int offset, int length) {
+            _slab = slab;
+            _generation = generation;
+            _offset = offset;
+            _length = length;
+        }
+    }
+
+    /**
+     * <p>
+     * Stream reading cached content directly from its slab
+     * </p>
+     */
+    private class SlabInputStream extends InputStream {
+        private final Location _location;
+        private final ByteBuffer _buffer;
+        private final int _limit;
+        private int _position;
+        private int _mark;
+
+        SlabInputStream(Location location) {
+            _location = location;
+            _buffer = _slabs[location._slab].duplicate();
+            _position = location._offset;
+            _mark = location._offset;
+            _limit = location._offset + location._length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (_position >= _limit) {
+                return -1;
+            }
+
+            final int count = Math.min(len, _limit - _position);
+            checkGeneration();
+            _buffer.position(_position);
+            _buffer.get(b, off, count);
+            // Slab reused while copying, the copied bytes may belong to another entry
+            checkGeneration();
+            _position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            final long skipped = Math.max(0, Math.min(n, _limit - _position));
+            _position += (int) skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return _limit - _position;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            _mark = _position;
+        }
+
+        @Override
+        public synchronized void reset() {
+            _position = _mark;
+        }
+
+        private void checkGeneration() throws IOException {
+            if (_generations.get(_location._slab) != _location._generation)
+                throw new IOException("Cached content was evicted while it was read");
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.config.ViewerConfig;
+import com.groupdocs.viewer.domain.cache.*;
+import com.groupdocs.viewer.handler.cache.ICacheDataHandler;
+
+import java.io.*;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Cache data handler which stores all cache files of a document (pages, resources, attachments and
+ * converted documents) in a single {@link CachePack} container, e.g. {@code cache/document.docx.pack},
+ * instead of a folder tree with a file per entry. Lookups are answered from the in-memory offset index,
+ * reads do not open files, and a document is evicted by deleting one file.
+ * </p>
+ * <p>
+ * Containers are appended by this process only, so a cache folder should not be shared by
+ * several processes using this handler.
+ * </p>
+ */
+public class PackedCacheDataHandler implements ICacheDataHandler {
+    private static final String PACK_EXTENSION = ".pack";
+    private static final String ENTRY_SEPARATOR = "!/";
+    private static final String HTML_DIR_NAME = "html";
+    private static final String IMAGE_DIR_NAME = "image";
+    private static final String RESOURCES_DIR_NAME = "resources";
+    private static final String ATTACHMENTS_DIR_NAME = "attachments";
+    private static final String HTML_EXTENSION = ".html";
+    private static final int DEFAULT_MAX_OPEN_PACKS = 256;
+    private static final int WRITE_BUFFER_THRESHOLD = 4 * 1024 * 1024;
+
+    private final ViewerConfig _viewerConfig;
+    private final CacheLayout _layout;
+    private final CacheEvictor _evictor;
+    private final int _maxOpenPacks;
+
+    /**
+     * <p>
+     * Open containers by file path in access order, eldest are closed when there are too many.
+     * A closed container finishes its running append first, callers holding it reopen it from this map.
+     * </p>
+     */
+    private final LinkedHashMap<String, CachePack> _packs = new LinkedHashMap<String, CachePack>(64, 0.75f, true);
+
+    private volatile String _optionsSuffix = "";
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code PackedCacheDataHandler} class.
+     * </p>
+     *
+     * @param viewerConfig The viewer configuration.
+     */
+    public PackedCacheDataHandler(ViewerConfig viewerConfig) {
+        this(viewerConfig, new FlatCacheLayout(viewerConfig), DEFAULT_MAX_OPEN_PACKS);
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code PackedCacheDataHandler} class.
+     * </p>
+     *
+     * @param viewerConfig The viewer configuration.
+     * @param layout       The cache layout, a container is stored next to the document folder it replaces.
+     * @param maxOpenPacks Maximum number of containers kept open.
+     */
+    public PackedCacheDataHandler(ViewerConfig viewerConfig, CacheLayout layout, int maxOpenPacks) {
+        if (viewerConfig == null)
+            throw new IllegalArgumentException("viewerConfig");
+        if (layout == null)
+            throw new IllegalArgumentException("layout");
+        if (maxOpenPacks <= 0)
+            throw new IllegalArgumentException("maxOpenPacks");
+
+        _viewerConfig = viewerConfig;
+        _layout = layout;
+        _maxOpenPacks = maxOpenPacks;
+
+        String cachePath = viewerConfig.getCachePath();
+        if (!new File(cachePath).isAbsolute()) {
+            cachePath = new File("").getAbsolutePath() + File.separator + cachePath;
+        }
+        _evictor = new CacheEvictor(Paths.get(cachePath));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Check if the specified cache file exist.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return boolean
+     */
+    public boolean exists(CacheFileDescription cacheFileDescription) {
+        final CachePack pack = getPack(CacheEntryIndex.getGuid(cacheFileDescription));
+        final String key = getEntryKey(cacheFileDescription);
+        return pack != null && pack.contains(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Get stream with cached file
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return input stream
+     */
+    public InputStream getInputStream(CacheFileDescription cacheFileDescription) {
+        final String guid = CacheEntryIndex.getGuid(cacheFileDescription);
+        final String key = getEntryKey(cacheFileDescription);
+        InputStream result = null;
+        // Second attempt reopens the container when it was closed by another thread meanwhile
+        for (int attempt = 0; attempt < 2 && result == null; attempt++) {
+            final CachePack pack = getPack(guid);
+            if (pack == null) {
+                break;
+            }
+            try {
+                result = pack.openInputStream(key);
+                if (result == null) {
+                    break;
+                }
+            } catch (IOException e) {
+                if (attempt > 0) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if (result == null) {
+            String exceptionMethod = "Cache data handler can not find file, located in this path: '" + getFilePath(cacheFileDescription) + "'";
+            throw new RuntimeException(exceptionMethod);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Prepare stream where file will be stored, the entry is appended to the document container
+     * when the stream is closed.
+     * </p>
+     *
+     * @param cacheFileDescription The cache file description.
+     * @return OutputStream
+     */
+    public OutputStream getOutputSaveStream(CacheFileDescription cacheFileDescription) {
+        final String guid = CacheEntryIndex.getGuid(cacheFileDescription);
+        final String key = getEntryKey(cacheFileDescription);
+
+        return new SpillOutputStream(WRITE_BUFFER_THRESHOLD) {
+            @Override
+            protected void onClose() throws IOException {
+                // Second attempt reopens the container when it was closed as eldest open one meanwhile
+                for (int attempt = 0; ; attempt++) {
+                    final CachePack pack = getOrCreatePack(guid);
+                    final InputStream content = openInputStream();
+                    try {
+                        pack.append(key, content, size());
+                        return;
+                    } catch (IOException e) {
+                        if (attempt > 0 || !pack.isClosed()) {
+                            throw e;
+                        }
+                    } finally {
+                        content.close();
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * <p>
+     * Sets options pages cached by this handler are rendered with,
+     * see {@link LocalCacheDataHandler#setRenderOptions(Object)}.
+     * </p>
+     *
+     * @param options The rendering options, null for entry names without fingerprint.
+     * @throws IllegalArgumentException when the options contain a value without stable representation
+     */
+    public void setRenderOptions(Object options) {
+        _optionsSuffix = RenderOptionsFingerprint.getCacheSuffix(options);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Gets the HTML page resources folder path. Resources are stored in the container,
+     * so the path is a virtual one and the folder is not created.
+     * </p>
+     *
+     * @param cachedPageDescription The cached page description
+     * @return System.String.
+     */
+    public String getHtmlPageResourcesFolder(CachedPageDescription cachedPageDescription) {
+        final String prefix = getResourcesKeyPrefix(cachedPageDescription);
+        return getPackPath(cachedPageDescription.getGuid()) + ENTRY_SEPARATOR + prefix.substring(0, prefix.length() - 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Gets the html page resources descriptions from the container index.
+     * </p>
+     *
+     * @param cachedPageDescription The cached page description
+     * @return List of page resources descriptions
+     */
+    public List<CachedPageResourceDescription> getHtmlPageResources(CachedPageDescription cachedPageDescription) {
+        List<CachedPageResourceDescription> result = new ArrayList<CachedPageResourceDescription>();
+        final CachePack pack = getPack(cachedPageDescription.getGuid());
+        if (pack == null) {
+            return result;
+        }
+
+        final String prefix = getResourcesKeyPrefix(cachedPageDescription);
+        for (String key : pack.getKeys(prefix)) {
+            result.add(new CachedPageResourceDescription(cachedPageDescription, key.substring(prefix.length())));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Gets the last modification date.
+     * </p>
+     */
+    public Date getLastModificationDate(CacheFileDescription cacheFileDescription) {
+        final CachePack pack = getPack(CacheEntryIndex.getGuid(cacheFileDescription));
+        return pack == null ? null : pack.getLastModified(getEntryKey(cacheFileDescription));
+    }
+
+    /**
+     * <p>
+     * Clears containers older than specified time interval.
+     * </p>
+     *
+     * @param olderThan The time interval.
+     */
+    public void clearCache(long olderThan) {
+        final CacheEvictor.Result result = _evictor.evictOlderThan(olderThan);
+        Logger.getAnonymousLogger().fine("Cache cleared: " + result);
+
+        // Containers are written while open, close the ones which were deleted
+        synchronized (_packs) {
+            final Iterator<CachePack> iterator = _packs.values().iterator();
+            while (iterator.hasNext()) {
+                final CachePack pack = iterator.next();
+                if (!pack.getFile().exists()) {
+                    iterator.remove();
+                    closeQuietly(pack);
+                }
+            }
+        }
+    }
+
+    public void clearCache() {
+        synchronized (_packs) {
+            for (CachePack pack : _packs.values()) {
+                closeQuietly(pack);
+            }
+            _packs.clear();
+        }
+        clearCache(0L);
+    }
+
+    /**
+     * <p>
+     * Clears cache files related to specified document by deleting its container.
+     * </p>
+     *
+     * @param guid The file unique identifier, full path for local storage e.g. c:\\storage\\document.txt,
+     *             relative path e.g document.txt, url e.g. http://site.com/document.txt.
+     */
+    public void clearCache(String guid) {
+        final String packPath = getPackPath(guid);
+        final CachePack pack;
+        synchronized (_packs) {
+            pack = _packs.remove(packPath);
+        }
+        if (pack != null ? !pack.delete() : new File(packPath).exists() && !new File(packPath).delete()) {
+            Logger.getAnonymousLogger().warning("Can't delete cache pack " + packPath);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Gets the path to the cached file, in form of {@code container path!/entry key}.
+     * </p>
+     *
+     * @param cacheFileDescription The cached document description
+     * @return System.String.
+     */
+    public String getFilePath(CacheFileDescription cacheFileDescription) {
+        return getPackPath(CacheEntryIndex.getGuid(cacheFileDescription)) + ENTRY_SEPARATOR + getEntryKey(cacheFileDescription);
+    }
+
+    private String getPackPath(String guid) {
+        return new File(_layout.getDocumentFolder(guid) + PACK_EXTENSION).getAbsolutePath();
+    }
+
+    /**
+     * <p>
+     * Gets the open container of the document.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The container or null if the document has no cached files
+     */
+    private CachePack getPack(String guid) {
+        final String packPath = getPackPath(guid);
+        synchronized (_packs) {
+            final CachePack pack = _packs.get(packPath);
+            if (pack != null) {
+                return pack;
+            }
+        }
+        if (!new File(packPath).exists()) {
+            return null;
+        }
+        return openPack(packPath);
+    }
+
+    private CachePack getOrCreatePack(String guid) throws IOException {
+        final CachePack pack = openPack(getPackPath(guid));
+        if (pack == null)
+            throw new IOException("Can't open cache pack of " + guid);
+        return pack;
+    }
+
+    private CachePack openPack(String packPath) {
+        synchronized (_packs) {
+            CachePack pack = _packs.get(packPath);
+            if (pack != null) {
+                return pack;
+            }
+            try {
+                pack = new CachePack(new File(packPath));
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+            _packs.put(packPath, pack);
+
+            if (_packs.size() > _maxOpenPacks) {
+                // Closed while the map is locked, so the container is not reopened before its running append ends
+                final Iterator<CachePack> eldest = _packs.values().iterator();
+                closeQuietly(eldest.next());
+                eldest.remove();
+            }
+            return pack;
+        }
+    }
+
+    private static void closeQuietly(CachePack pack) {
+        try {
+            pack.close();
+        } catch (IOException e) {
+            Logger.getAnonymousLogger().warning("Can't close cache pack " + pack.getFile() + ": " + e);
+        }
+    }
+
+    /**
+     * <p>
+     * Gets key of the entry inside the document container, e.g. {@code html/page_1.html}.
+     * </p>
+     */
+    private String getEntryKey(CacheFileDescription cacheFileDescription) {
+        final String optionsSuffix = _optionsSuffix;
+        switch (cacheFileDescription.getCacheFileType()) {
+            case CacheFileType.Page: {
+                CachedPageDescription page = (CachedPageDescription) cacheFileDescription;
+                if (CacheFileNames.isHtmlPage(page)) {
+                    return HTML_DIR_NAME + "/" + _viewerConfig.getPageNamePrefix() + page.getPageNumber() + optionsSuffix + HTML_EXTENSION;
+                }
+                return IMAGE_DIR_NAME + "/" + page.getWidth() + "x" + page.getHeight() + "px" + (page.getExtractText() ? ".pdf" : "")
+                        + "/" + _viewerConfig.getPageNamePrefix() + page.getPageNumber() + CacheFileNames.getQualitySuffix(page) + optionsSuffix
+                        + CacheFileNames.normalizeExtension(page.getOutputExtension());
+            }
+            case CacheFileType.PageResource: {
+                CachedPageResourceDescription resource = (CachedPageResourceDescription) cacheFileDescription;
+                return getResourcesKeyPrefix(resource.getCachedPageDescription()) + resource.getResourceName();
+            }
+            case CacheFileType.Attachment:
+                return ATTACHMENTS_DIR_NAME + "/" + ((CachedAttachmentDescription) cacheFileDescription).getAttachmentName();
+            case CacheFileType.Document: {
+                CachedDocumentDescription document = (CachedDocumentDescription) cacheFileDescription;
+                return document.getName().replaceAll("\\.\\w+$", optionsSuffix + CacheFileNames.normalizeExtension(document.getOutputExtension()));
+            }
+        }
+        throw new IllegalArgumentException("cacheFileDescription");
+    }
+
+    private String getResourcesKeyPrefix(CachedPageDescription cachedPageDescription) {
+        return HTML_DIR_NAME + "/" + RESOURCES_DIR_NAME + "/" + _viewerConfig.getPageNamePrefix() + cachedPageDescription.getPageNumber()
+                + _optionsSuffix + "/";
+    }
+}
@@ -0,0 +1,71 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.InputStream;
+
+/**
+ * <p>
+ * Bounded in-process cache of cached file contents keyed by resolved cache file path, used as the first tier
+ * in front of an {@code IFileStorage} backed cache, see {@link MemoryPageCache} and {@link OffHeapPageCache}.
+ * </p>
+ */
+public interface PageCache {
+    /**
+     * <p>
+     * Gets stream with cached content.
+     * </p>
+     *
+     * @param key The resolved cache file path.
+     * @return stream or null if the entry is not cached
+     */
+    InputStream getInputStream(String key);
+
+    /**
+     * <p>
+     * Checks whether the entry is cached.
+     * </p>
+     *
+     * @param key The resolved cache file path.
+     * @return true if the entry is cached
+     */
+    boolean contains(String key);
+
+    /**
+     * <p>
+     * Puts content into the cache.
+     * </p>
+     *
+     * @param key     The resolved cache file path.
+     * @param content The content, must not be modified afterwards.
+     * @return true if the content was cached, false if it is too big
+     */
+    boolean put(String key, byte[] content);
+
+    void remove(String key);
+
+    /**
+     * <p>
+     * Removes all entries which keys start with specified prefix, e.g. all entries of a document.
+     * Folder prefixes must end with the separator, otherwise entries of sibling folders sharing the name are removed too.
+     * </p>
+     *
+     * @param prefix The key prefix.
+     */
+    void removeByPrefix(String prefix);
+
+    void clear();
+
+    /**
+     * <p>
+     * Gets the maximum size of a single entry, bigger entries are not cached.
+     * </p>
+     */
+    long getMaxEntrySize();
+
+    long getSize();
+
+    int getCount();
+
+    long getHits();
+
+    long getMisses();
+}
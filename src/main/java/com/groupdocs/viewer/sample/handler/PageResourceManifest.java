@@ -0,0 +1,338 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.*;
+import java.net.URLConnection;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * <p>
+ * Manifest of resources (css, fonts, images) of a cached html page: names, sizes, content types
+ * and hashes. It is stored next to the page resources folder, e.g. {@code html/resources/page_1.manifest},
+ * so resources of the page are enumerated with a single small read instead of a folder listing.
+ * </p>
+ * <p>
+ * The manifest is a UTF-8 text file with a header line and one line per resource, which can be
+ * appended to. When a resource is listed several times the last line wins.
+ * </p>
+ */
+public class PageResourceManifest {
+    /**
+     * <p>
+     * Extension appended to the page resources folder path to get the manifest path
+     * </p>
+     */
+    public static final String FILE_EXTENSION = ".manifest";
+
+    private static final String HEADER = "#page-resources 1";
+    private static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * <p>
+     * Content types of web resources which {@link URLConnection#guessContentTypeFromName} does not know
+     * </p>
+     */
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<String, String>();
+
+    static {
+        CONTENT_TYPES.put("css", "text/css");
+        CONTENT_TYPES.put("js", "application/javascript");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("ttf", "font/ttf");
+        CONTENT_TYPES.put("otf", "font/otf");
+        CONTENT_TYPES.put("eot", "application/vnd.ms-fontobject");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("bmp", "image/bmp");
+    }
+
+    private final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>();
+
+    /**
+     * <p>
+     * Gets the manifest path of the page resources folder.
+     * </p>
+     *
+     * @param resourcesFolder The page resources folder path.
+     * @return The manifest path
+     */
+    public static String getManifestPath(String resourcesFolder) {
+        return resourcesFolder + FILE_EXTENSION;
+    }
+
+    /**
+     * <p>
+     * Guesses content type of the resource by its name.
+     * </p>
+     *
+     * @param name The resource name.
+     * @return The content type, {@code application/octet-stream} when it is unknown
+     */
+    public static String guessContentType(String name) {
+        final int dot = name.lastIndexOf('.');
+        if (dot >= 0) {
+            final String contentType = CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+            if (contentType != null) {
+                return contentType;
+            }
+        }
+        final String contentType = URLConnection.guessContentTypeFromName(name);
+        return contentType == null ? DEFAULT_CONTENT_TYPE : contentType;
+    }
+
+    /**
+     * <p>
+     * Reads the manifest.
+     * </p>
+     *
+     * @param input The manifest content, not closed by this method.
+     * @return The manifest or null when the content is not a manifest of supported format
+     * @throws IOException when the content can not be read
+     */
+    public static PageResourceManifest read(InputStream input) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(input, UTF_8));
+        if (!HEADER.equals(reader.readLine())) {
+            return null;
+        }
+
+        final PageResourceManifest manifest = new PageResourceManifest();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final String[] fields = line.split("\t", -1);
+            if (fields.length != 4) {
+                // Line cut off by an interrupted append
+                continue;
+            }
+            try {
+                manifest.add(new Entry(URLDecoder.decode(fields[0], "UTF-8"), Long.parseLong(fields[1]), fields[2], fields[3]));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * <p>
+     * Gets the manifest header, which is written before the first entry.
+     * </p>
+     *
+     * @return The header line bytes
+     */
+    public static byte[] header() {
+        return (HEADER + "\n").getBytes(UTF_8);
+    }
+
+    /**
+     * <p>
+     * Formats the entry as a manifest line, which can be appended to a stored manifest.
+     * </p>
+     *
+     * @param entry The entry.
+     * @return The line bytes
+     */
+    public static byte[] format(Entry entry) {
+        try {
+            final String line = URLEncoder.encode(entry.getName(), "UTF-8") + "\t" + entry.getSize() + "\t" + entry.getContentType() + "\t" + entry.getHash() + "\n";
+            return line.getBytes(UTF_8);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * <p>
+     * Adds or replaces the resource entry.
+     * </p>
+     *
+     * @param entry The entry.
+     */
+    public synchronized void add(Entry entry) {
+        if (entry == null)
+            throw new IllegalArgumentException("entry");
+        _entries.remove(entry.getName());
+        _entries.put(entry.getName(), entry);
+    }
+
+    /**
+     * <p>
+     * Gets the resource entry.
+     * </p>
+     *
+     * @param name The resource name.
+     * @return The entry or null if the resource is not listed
+     */
+    public synchronized Entry get(String name) {
+        return _entries.get(name);
+    }
+
+    /**
+     * <p>
+     * Gets the resource entries in the order they were added.
+     * </p>
+     *
+     * @return Copy of the entries
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(_entries.values());
+    }
+
+    /**
+     * <p>
+     * Gets the number of listed resources.
+     * </p>
+     */
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /**
+     * <p>
+     * Gets the manifest content.
+     * </p>
+     *
+     * @return The manifest bytes
+     */
+    public synchronized byte[] toByteArray() {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(64 + _entries.size() * 96);
+        try {
+            output.write(header());
+            for (Entry entry : _entries.values()) {
+                output.write(format(entry));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * <p>
+     * Resource of the cached html page.
+     * </p>
+     */
+    public static class Entry {
+        private final String _name;
+        private final long _size;
+        private final String _contentType;
+        private final String _hash;
+
+        /**
+         * <p>
+         * Initializes a new instance of the {@code Entry} class.
+         * </p>
+         *
+         * @param name        The resource name.
+         * @param size        The resource size in bytes.
+         * @param contentType The resource content type.
+         * @param hash        Hex encoded SHA-1 of the resource content.
+         */
+        public Entry(String name, long size, String contentType, String hash) {
+            if (name == null || name.isEmpty())
+                throw new IllegalArgumentException("name");
+            if (contentType == null)
+                throw new IllegalArgumentException("contentType");
+            if (hash == null)
+                throw new IllegalArgumentException("hash");
+
+            _name = name;
+            _size = size;
+            _contentType = contentType;
+            _hash = hash;
+        }
+
+        public String getName() {
+            return _name;
+        }
+
+        public long getSize() {
+            return _size;
+        }
+
+        public String getContentType() {
+            return _contentType;
+        }
+
+        /**
+         * <p>
+         * Gets hex encoded SHA-1 of the resource content, e.g. to use it as ETag.
+         * </p>
+         */
+        public String getHash() {
+            return _hash;
+        }
+    }
+
+    /**
+     * <p>
+     * Output stream which counts and hashes written resource bytes and reports them
+     * once the underlying stream is closed successfully.
+     * </p>
+     */
+    public abstract static class RecordingOutputStream extends FilterOutputStream {
+        private final MessageDigest _digest;
+        private long _size;
+        private boolean _closed;
+
+        protected RecordingOutputStream(OutputStream out) {
+            super(out);
+            try {
+                _digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            _digest.update((byte) b);
+            _size++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            _digest.update(b, off, len);
+            _size += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_closed) {
+                return;
+            }
+            _closed = true;
+            out.close();
+
+            final byte[] digest = _digest.digest();
+            final char[] hash = new char[digest.length * 2];
+            for (int n = 0; n < digest.length; n++) {
+                hash[n * 2] = HEX[(digest[n] >> 4) & 0xF];
+                hash[n * 2 + 1] = HEX[digest[n] & 0xF];
+            }
+            onRecorded(_size, new String(hash));
+        }
+
+        /**
+         * <p>
+         * Called when the resource is written and the underlying stream is closed.
+         * </p>
+         *
+         * @param size The number of written bytes.
+         * @param hash Hex encoded SHA-1 of written bytes.
+         * @throws IOException when the resource can not be recorded
+         */
+        protected abstract void onRecorded(long size, String hash) throws IOException;
+    }
+}
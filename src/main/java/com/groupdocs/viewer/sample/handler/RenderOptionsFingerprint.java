@@ -0,0 +1,247 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Builds stable fingerprint of rendering options, e.g. {@code HtmlOptions} or {@code ImageOptions}.
+ * All public getters of the options are read in name order, nested option objects
+ * (pdf, cells, words options, watermark etc.) are read the same way,
+ * so two equivalent option objects always produce the same fingerprint.
+ * Options holding values of other types, whose text may differ between equivalent objects,
+ * are rejected rather than fingerprinted. Passwords are left out, so they can not leak into cache keys,
+ * fingerprints or logged descriptions.
+ * </p>
+ */
+public final class RenderOptionsFingerprint {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final String OPTIONS_PACKAGE = "com.groupdocs.viewer";
+    private static final int MAX_DEPTH = 6;
+    private static final int CACHE_SUFFIX_LENGTH = 16;
+    private static final String PASSWORD_GETTER = "getPassword";
+
+    /**
+     * <p>
+     * Getters which select pages but do not change rendered output
+     * </p>
+     */
+    private static final Set<String> PAGE_SELECTION_GETTERS = new HashSet<String>(Arrays.asList(
+            "getPageNumber", "getCountPagesToRender", "getPageNumbersToRender"));
+
+    /**
+     * <p>
+     * Getters of already visited option classes
+     * </p>
+     */
+    private static final ConcurrentMap<Class<?>, Method[]> GETTERS = new ConcurrentHashMap<Class<?>, Method[]>();
+
+    private RenderOptionsFingerprint() {
+    }
+
+    /**
+     * <p>
+     * Gets fingerprint of the options.
+     * </p>
+     *
+     * @param options The rendering options, can be null.
+     * @return Hex encoded SHA-1 of canonical options representation
+     * @throws IllegalArgumentException when the options contain a value without stable representation
+     */
+    public static String of(Object options) {
+        return hash(describe(options));
+    }
+
+    /**
+     * <p>
+     * Gets suffix which cache handlers append to names of cached files rendered with the options,
+     * e.g. {@code -3fa2c19b07d4e811}. Page selection and password do not affect the suffix,
+     * so a page rendered alone and as part of a range share the cache entry.
+     * </p>
+     *
+     * @param options The rendering options, can be null.
+     * @return The suffix or empty string when options are null
+     * @throws IllegalArgumentException when the options contain a value without stable representation
+     */
+    public static String getCacheSuffix(Object options) {
+        if (options == null) {
+            return "";
+        }
+
+        StringBuilder builder = new StringBuilder(256);
+        append(builder, options, 0, new IdentityHashMap<Object, Boolean>(), PAGE_SELECTION_GETTERS);
+        return "-" + hash(builder.toString()).substring(0, CACHE_SUFFIX_LENGTH);
+    }
+
+    /**
+     * <p>
+     * Gets canonical representation of the options, useful for troubleshooting of cache misses.
+     * </p>
+     *
+     * @param options The rendering options, can be null.
+     * @return Canonical representation
+     * @throws IllegalArgumentException when the options contain a value without stable representation
+     */
+    public static String describe(Object options) {
+        StringBuilder builder = new StringBuilder(256);
+        append(builder, options, 0, new IdentityHashMap<Object, Boolean>(), Collections.<String>emptySet());
+        return builder.toString();
+    }
+
+    /**
+     * <p>
+     * Indicates whether the options carry a document password.
+     * </p>
+     *
+     * @param options The rendering options, can be null.
+     * @return true when the options have non empty password
+     */
+    public static boolean hasPassword(Object options) {
+        if (options == null) {
+            return false;
+        }
+        for (Method getter : getters(options.getClass())) {
+            if (PASSWORD_GETTER.equals(getter.getName())) {
+                try {
+                    final Object password = getter.invoke(options);
+                    return password != null && password.toString().length() > 0;
+                } catch (Exception e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * <p>
+     * Gets hex encoded SHA-1 of the value.
+     * </p>
+     *
+     * @param value The value.
+     * @return Hex string
+     */
+    public static String hash(String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(UTF_8));
+            char[] chars = new char[digest.length * 2];
+            for (int n = 0; n < digest.length; n++) {
+                chars[n * 2] = HEX[(digest[n] >> 4) & 0xF];
+                chars[n * 2 + 1] = HEX[digest[n] & 0xF];
+            }
+            return new String(chars);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void append(StringBuilder builder, Object value, int depth, IdentityHashMap<Object, Boolean> visited, Set<String> excluded) {
+        if (value == null) {
+            builder.append("null");
+        } else if (value instanceof CharSequence || value instanceof Number || value instanceof Boolean || value instanceof Character) {
+            builder.append(value);
+        } else if (value instanceof Enum) {
+            builder.append(((Enum<?>) value).name());
+        } else if (value instanceof Date) {
+            builder.append(((Date) value).getTime());
+        } else if (value instanceof java.awt.Color) {
+            builder.append(((java.awt.Color) value).getRGB());
+        } else if (value instanceof Locale) {
+            builder.append(value);
+        } else if (value.getClass().isArray()) {
+            builder.append('[');
+            final int length = Array.getLength(value);
+            for (int n = 0; n < length; n++) {
+                if (n > 0) {
+                    builder.append(',');
+                }
+                append(builder, Array.get(value, n), depth + 1, visited, Collections.<String>emptySet());
+            }
+            builder.append(']');
+        } else if (value instanceof Collection) {
+            builder.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                append(builder, item, depth + 1, visited, Collections.<String>emptySet());
+            }
+            builder.append(']');
+        } else if (value instanceof Map) {
+            final TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                sorted.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            append(builder, sorted.entrySet(), depth + 1, visited, Collections.<String>emptySet());
+        } else if (value instanceof Map.Entry) {
+            builder.append(((Map.Entry<?, ?>) value).getKey()).append('=');
+            append(builder, ((Map.Entry<?, ?>) value).getValue(), depth + 1, visited, Collections.<String>emptySet());
+        } else if (value.getClass().getName().startsWith(OPTIONS_PACKAGE) && depth < MAX_DEPTH) {
+            if (visited.put(value, Boolean.TRUE) != null) {
+                builder.append("@cycle");
+                return;
+            }
+            builder.append(value.getClass().getSimpleName()).append('{');
+            boolean first = true;
+            for (Method getter : getters(value.getClass())) {
+                if (excluded.contains(getter.getName()) || PASSWORD_GETTER.equals(getter.getName())) {
+                    continue;
+                }
+                if (!first) {
+                    builder.append(';');
+                }
+                first = false;
+                builder.append(getter.getName()).append('=');
+                try {
+                    append(builder, getter.invoke(value), depth + 1, visited, Collections.<String>emptySet());
+                } catch (Exception e) {
+                    builder.append('!');
+                }
+            }
+            builder.append('}');
+            visited.remove(value);
+        } else {
+            // toString() of other types may contain identity hash codes, such options would never hit the cache
+            throw new IllegalArgumentException("Options value of " + value.getClass().getName() + " has no stable representation");
+        }
+    }
+
+    private static Method[] getters(Class<?> clazz) {
+        Method[] getters = GETTERS.get(clazz);
+        if (getters != null) {
+            return getters;
+        }
+
+        List<Method> result = new ArrayList<Method>();
+        for (Method method : clazz.getMethods()) {
+            final String name = method.getName();
+            if (method.getParameterTypes().length == 0
+                    && !Modifier.isStatic(method.getModifiers())
+                    && method.getReturnType() != void.class
+                    && method.getDeclaringClass() != Object.class
+                    && (name.startsWith("get") || name.startsWith("is"))) {
+                result.add(method);
+            }
+        }
+        Collections.sort(result, new Comparator<Method>() {
+            @Override
+            public int compare(Method first, Method second) {
+                return first.getName().compareTo(second.getName());
+            }
+        });
+
+        getters = result.toArray(new Method[result.size()]);
+        GETTERS.putIfAbsent(clazz, getters);
+        return getters;
+    }
+}
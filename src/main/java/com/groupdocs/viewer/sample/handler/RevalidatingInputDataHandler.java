@@ -0,0 +1,247 @@
+package com.groupdocs.viewer.sample.handler;
+
+import com.groupdocs.viewer.domain.FileDescription;
+import com.groupdocs.viewer.handler.cache.ICacheDataHandler;
+import com.groupdocs.viewer.handler.input.IInputDataHandler;
+
+import java.io.InputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Input data handler decorator implementing stale-while-revalidate for modification dates of source documents.
+ * A remembered date is returned immediately, so cached pages are served without checking the storage;
+ * once the date is older than the TTL it is re-checked in the background, at most once per TTL per document.
+ * When the document changed, registered {@link SourceChangeListener}s are notified, e.g. to clear its cache
+ * and render it again in the background, see {@link #refreshOnChange(ICacheDataHandler, CacheWarmUpService)}.
+ * </p>
+ * <p>
+ * Pages of a changed document may be served from the cache for up to the TTL plus the re-check time.
+ * </p>
+ */
+public class RevalidatingInputDataHandler implements IInputDataHandler {
+    private static final Logger LOGGER = Logger.getLogger(RevalidatingInputDataHandler.class.getName());
+    private static final int MAX_ENTRIES = 100000;
+
+    private final IInputDataHandler _inputDataHandler;
+    private final long _ttl;
+    private final ExecutorService _executor;
+    private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+    private final List<SourceChangeListener> _listeners = new CopyOnWriteArrayList<SourceChangeListener>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code RevalidatingInputDataHandler} class, dates are re-checked
+     * on a single background thread.
+     * </p>
+     *
+     * @param inputDataHandler The input data handler.
+     * @param ttl              Time in milliseconds a remembered date is used without re-checking.
+     */
+    public RevalidatingInputDataHandler(IInputDataHandler inputDataHandler, long ttl) {
+        this(inputDataHandler, ttl, Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "input-revalidator");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }));
+    }
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code RevalidatingInputDataHandler} class.
+     * </p>
+     *
+     * @param inputDataHandler The input data handler.
+     * @param ttl              Time in milliseconds a remembered date is used without re-checking.
+     * @param executor         The executor re-checking dates.
+     */
+    public RevalidatingInputDataHandler(IInputDataHandler inputDataHandler, long ttl, ExecutorService executor) {
+        if (inputDataHandler == null)
+            throw new IllegalArgumentException("inputDataHandler");
+        if (ttl < 0)
+            throw new IllegalArgumentException("ttl");
+        if (executor == null)
+            throw new IllegalArgumentException("executor");
+
+        _inputDataHandler = inputDataHandler;
+        _ttl = ttl;
+        _executor = executor;
+    }
+
+    /**
+     * <p>
+     * Creates listener which clears cache of the changed document and queues it for warm-up,
+     * so the next viewer gets freshly rendered pages.
+     * </p>
+     *
+     * @param cacheDataHandler The cache data handler.
+     * @param warmUpService    The warm-up service, can be null to render on next request.
+     * @return The listener
+     */
+    public static SourceChangeListener refreshOnChange(final ICacheDataHandler cacheDataHandler, final CacheWarmUpService warmUpService) {
+        if (cacheDataHandler == null)
+            throw new IllegalArgumentException("cacheDataHandler");
+
+        return new SourceChangeListener() {
+            public void onChanged(String guid, Date previous, Date current) {
+                cacheDataHandler.clearCache(guid);
+                if (warmUpService != null && current != null) {
+                    try {
+                        // Re-checks are not held up by a saturated warm-up, the page is then rendered on request
+                        warmUpService.tryWarmUp(guid, 0);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
+    public void addListener(SourceChangeListener listener) {
+        if (listener == null)
+            throw new IllegalArgumentException("listener");
+        _listeners.add(listener);
+    }
+
+    public void removeListener(SourceChangeListener listener) {
+        _listeners.remove(listener);
+    }
+
+    public InputStream getFile(String guid) {
+        return _inputDataHandler.getFile(guid);
+    }
+
+    public List<FileDescription> getEntities(String path) {
+        return _inputDataHandler.getEntities(path);
+    }
+
+    /**
+     * <p>
+     * Gets the last modification date, remembered date is returned without checking the storage
+     * and re-checked in the background once it is older than the TTL.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     * @return The date or null if the document does not exist
+     */
+    public Date getLastModificationDate(final String guid) {
+        final Entry entry = _entries.get(guid);
+        if (entry == null) {
+            final Date date = _inputDataHandler.getLastModificationDate(guid);
+            if (date != null) {
+                if (_entries.size() >= MAX_ENTRIES) {
+                    _entries.clear();
+                }
+                _entries.put(guid, new Entry(date));
+            }
+            return date;
+        }
+
+        if (System.currentTimeMillis() - entry._checkedAt >= _ttl && entry._checking.compareAndSet(false, true)) {
+            try {
+                _executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        revalidate(guid, entry);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                entry._checking.set(false);
+            }
+        }
+        return entry._date;
+    }
+
+    public FileDescription getFileDescription(String guid) {
+        return _inputDataHandler.getFileDescription(guid);
+    }
+
+    /**
+     * <p>
+     * Forgets remembered date of the document, e.g. when the document is known to be replaced.
+     * </p>
+     *
+     * @param guid The file unique identifier.
+     */
+    public void invalidate(String guid) {
+        _entries.remove(guid);
+    }
+
+    /**
+     * <p>
+     * Stops background re-checks.
+     * </p>
+     */
+    public void shutdown() {
+        _executor.shutdownNow();
+    }
+
+    private void revalidate(String guid, Entry entry) {
+        try {
+            final Date current = _inputDataHandler.getLastModificationDate(guid);
+            final Date previous = entry._date;
+            entry._checkedAt = System.currentTimeMillis();
+            if (current == null) {
+                _entries.remove(guid, entry);
+            } else {
+                entry._date = current;
+            }
+
+            if (current == null || current.getTime() != previous.getTime()) {
+                for (SourceChangeListener listener : _listeners) {
+                    try {
+                        listener.onChanged(guid, previous, current);
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Source change listener failed for " + guid, e);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Can't re-check modification date of " + guid, e);
+        } finally {
+            entry._checking.set(false);
+        }
+    }
+
+    /**
+     * <p>
+     * Receives changes of source documents detected by background re-checks.
+     * </p>
+     */
+    public interface SourceChangeListener {
+        /**
+         * <p>
+         * Called when modification date of the document changed.
+         * </p>
+         *
+         * @param guid     The file unique identifier.
+         * @param previous The remembered modification date.
+         * @param current  The current modification date, null if the document was removed.
+         */
+        void onChanged(String guid, Date previous, Date current);
+    }
+
+    /**
+     * <p>
+     * Remembered modification date
+     * </p>
+     */
+    private static class Entry {
+        private final AtomicBoolean _checking = new AtomicBoolean();
+        private volatile Date _date;
+        private volatile long _checkedAt;
+
+        Entry(Date date) {
+            _date = date;
+            _checkedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>
+ * Short lived cache of S3 object metadata used by {@link AmazonS3FileStorage} to avoid repeated
+ * {@code HEAD} requests for the same key. Both existing objects and missing keys are cached, missing keys
+ * usually with a shorter TTL since they are expected to be created soon, e.g. by the cache handler.
+ * </p>
+ */
+public class S3MetadataCache {
+    private final long _ttl;
+    private final long _missingTtl;
+    private final int _maxEntries;
+    private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code S3MetadataCache} class.
+     * </p>
+     *
+     * @param ttl        Time in milliseconds metadata of existing object is cached.
+     * @param missingTtl Time in milliseconds a missing key is cached, 0 to not cache missing keys.
+     * @param maxEntries Maximum number of cached keys, the cache is emptied when it is full.
+     */
+    public S3MetadataCache(long ttl, long missingTtl, int maxEntries) {
+        if (ttl < 0)
+            throw new IllegalArgumentException("ttl");
+        if (missingTtl < 0)
+            throw new IllegalArgumentException("missingTtl");
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries");
+
+        _ttl = ttl;
+        _missingTtl = missingTtl;
+        _maxEntries = maxEntries;
+    }
+
+    /**
+     * <p>
+     * Gets cached metadata.
+     * </p>
+     *
+     * @param key The object key.
+     * @return The entry or null if the key is not cached or the entry expired
+     */
+    public Entry get(String key) {
+        final Entry entry = _entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() >= entry._expiresAt) {
+            _entries.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(String key, long size, Date lastModified, String eTag) {
+        if (_ttl > 0) {
+            add(key, new Entry(true, size, lastModified, eTag, System.currentTimeMillis() + _ttl));
+        }
+    }
+
+    /**
+     * <p>
+     * Remembers that the object does not exist.
+     * </p>
+     *
+     * @param key The object key.
+     */
+    public void putMissing(String key) {
+        if (_missingTtl > 0) {
+            add(key, new Entry(false, 0, null, null, System.currentTimeMillis() + _missingTtl));
+        }
+    }
+
+    public void invalidate(String key) {
+        _entries.remove(key);
+    }
+
+    /**
+     * <p>
+     * Removes all keys starting with the prefix, e.g. after the directory was deleted.
+     * </p>
+     *
+     * @param prefix The key prefix.
+     */
+    public void invalidatePrefix(String prefix) {
+        final Iterator<String> iterator = _entries.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().startsWith(prefix)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        _entries.clear();
+    }
+
+    public int size() {
+        return _entries.size();
+    }
+
+    private void add(String key, Entry entry) {
+        if (_entries.size() >= _maxEntries) {
+            _entries.clear();
+        }
+        _entries.put(key, entry);
+    }
+
+    /**
+     * <p>
+     * Cached object metadata
+     * </p>
+     */
+    public static class Entry {
+        private final boolean _exists;
+        private final long _size;
+        private final Date _lastModified;
+        private final String _eTag;
+        private final long _expiresAt;
+
+        Entry(boolean exists, long size, Date lastModified, String eTag, long expiresAt) {
+            _exists = exists;
+            _size = size;
+            _lastModified = lastModified;
+            _eTag = eTag;
+            _expiresAt = expiresAt;
+        }
+
+        public boolean exists() {
+            return _exists;
+        }
+
+        public long getSize() {
+            return _size;
+        }
+
+        public Date getLastModified() {
+            return _lastModified == null ? null : new Date(_lastModified.getTime());
+        }
+
+        public String getETag() {
+            return _eTag;
+        }
+    }
+}
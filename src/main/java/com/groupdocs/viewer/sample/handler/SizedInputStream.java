@@ -0,0 +1,69 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * Input stream which knows the length of its content, so the content can be uploaded without reading it first,
+ * e.g. content spilled to a temporary file by {@link SpillOutputStream}.
+ * </p>
+ */
+final class SizedInputStream extends FilterInputStream {
+    private long _remaining;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code SizedInputStream} class.
+     * </p>
+     *
+     * @param in     The content.
+     * @param length The content length.
+     */
+    SizedInputStream(InputStream in, long length) {
+        super(in);
+        if (length < 0)
+            throw new IllegalArgumentException("length");
+        _remaining = length;
+    }
+
+    /**
+     * <p>
+     * Gets the number of bytes which were not read yet.
+     * </p>
+     */
+    long getRemaining() {
+        return _remaining;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b >= 0) {
+            _remaining--;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final int read = super.read(b, off, len);
+        if (read > 0) {
+            _remaining -= read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = super.skip(n);
+        _remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
@@ -0,0 +1,146 @@
+package com.groupdocs.viewer.sample.handler;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Output stream which keeps written bytes in memory until their size exceeds specified threshold
+ * and then continues writing to a temporary file, so memory used by a single stream is bounded
+ * regardless of content size. Subclasses publish the content from {@link #onClose()}.
+ * </p>
+ */
+public abstract class SpillOutputStream extends OutputStream {
+    private static final String TEMP_FILE_PREFIX = "viewer-cache-";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final int _threshold;
+    private byte[] _buffer = new byte[1024];
+    private int _count;
+    private File _tempFile;
+    private OutputStream _fileStream;
+    private long _size;
+    private boolean _closed;
+
+    /**
+     * <p>
+     * Initializes a new instance of the {@code SpillOutputStream} class.
+     * </p>
+     *
+     * @param threshold Maximum number of bytes kept in memory.
+     */
+    protected SpillOutputStream(int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("threshold");
+        _threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (_closed)
+            throw new IOException("Stream is closed");
+
+        if (_fileStream == null && _count + len > _threshold) {
+            spill();
+        }
+
+        if (_fileStream != null) {
+            _fileStream.write(b, off, len);
+        } else {
+            if (_count + len > _buffer.length) {
+                _buffer = Arrays.copyOf(_buffer, Math.min(_threshold, Math.max(_buffer.length << 1, _count + len)));
+            }
+            System.arraycopy(b, off, _buffer, _count, len);
+            _count += len;
+        }
+        _size += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (_fileStream != null) {
+            _fileStream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_closed)
+            return;
+        _closed = true;
+
+        try {
+            if (_fileStream != null) {
+                _fileStream.close();
+            }
+            onClose();
+        } finally {
+            _buffer = null;
+            if (_tempFile != null && !_tempFile.delete()) {
+                _tempFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * <p>
+     * Called once all content has been written, the content is still available at this point.
+     * </p>
+     */
+    protected abstract void onClose() throws IOException;
+
+    /**
+     * <p>
+     * Indicates whether the content is kept in memory.
+     * </p>
+     */
+    protected boolean isInMemory() {
+        return _fileStream == null;
+    }
+
+    /**
+     * <p>
+     * Gets the total number of written bytes.
+     * </p>
+     */
+    protected long size() {
+        return _size;
+    }
+
+    /**
+     * <p>
+     * Opens stream with written content, the in-memory buffer is not copied. The stream knows its length,
+     * so storages like {@link AmazonS3FileStorage} upload spilled content without reading it first.
+     * </p>
+     */
+    protected InputStream openInputStream() throws IOException {
+        if (_fileStream != null) {
+            return new SizedInputStream(new BufferedInputStream(new FileInputStream(_tempFile)), _size);
+        }
+        return new ByteArrayInputStream(_buffer, 0, _count);
+    }
+
+    /**
+     * <p>
+     * Gets copy of the content, valid only while the content is kept in memory.
+     * </p>
+     */
+    protected byte[] toByteArray() {
+        if (_fileStream != null)
+            throw new IllegalStateException("Content was spilled to disk");
+        return Arrays.copyOf(_buffer, _count);
+    }
+
+    private void spill() throws IOException {
+        _tempFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+        _fileStream = new BufferedOutputStream(new FileOutputStream(_tempFile));
+        _fileStream.write(_buffer, 0, _count);
+        _buffer = null;
+        _count = 0;
+    }
+}
@@ -0,0 +1,799 @@
+package com.groupdocs.viewer.sample.operations;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.DeleteObjectsResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import com.groupdocs.viewer.config.ViewerConfig;
+import com.groupdocs.viewer.converter.options.HtmlOptions;
+import com.groupdocs.viewer.domain.cache.CachedPageDescription;
+import com.groupdocs.viewer.domain.html.PageHtml;
+import com.groupdocs.viewer.handler.ViewerHtmlHandler;
+import com.groupdocs.viewer.sample.Utilities;
+import com.groupdocs.viewer.sample.handler.AmazonS3FileStorage;
+import com.groupdocs.viewer.sample.handler.CacheDataHandler;
+import com.groupdocs.viewer.sample.handler.CachePack;
+import com.groupdocs.viewer.sample.handler.CachePeerServer;
+import com.groupdocs.viewer.sample.handler.DistributedCacheDataHandler;
+import com.groupdocs.viewer.sample.handler.FlatCacheLayout;
+import com.groupdocs.viewer.sample.handler.LocalCacheDataHandler;
+import com.groupdocs.viewer.sample.handler.LocalInputDataHandler;
+import com.groupdocs.viewer.sample.handler.OffHeapPageCache;
+import com.groupdocs.viewer.sample.handler.PackedCacheDataHandler;
+import com.groupdocs.viewer.storage.FileInfo;
+import com.groupdocs.viewer.storage.IFileInfo;
+import com.groupdocs.viewer.storage.IFileStorage;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.groupdocs.viewer.sample.TestRunner.OUTPUT_PATH;
+import static com.groupdocs.viewer.sample.TestRunner.STORAGE_PATH;
+import static com.groupdocs.viewer.sample.Utilities.initOutput;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CacheHandlersTests {
+
+    @Before
+    public void before() {
+        Utilities.applyLicense();
+        initOutput();
+    }
+
+    @After
+    public void after() throws IOException {
+        Utilities.cleanOutput();
+    }
+
+    @Test
+    public void testDistributedCacheRendersOncePerClusterAndFailsOver() throws Exception {
+        Utilities.showTestHeader();
+        String guid = "document.docx";
+
+        ViewerConfig firstConfig = createNodeConfig("node1");
+        ViewerConfig secondConfig = createNodeConfig("node2");
+        LocalCacheDataHandler firstLocal = new LocalCacheDataHandler(firstConfig);
+        LocalCacheDataHandler secondLocal = new LocalCacheDataHandler(secondConfig);
+
+        // Both nodes run in-process on ephemeral loopback ports
+        CachePeerServer firstServer = new CachePeerServer(firstLocal, 0);
+        CachePeerServer secondServer = new CachePeerServer(secondLocal, 0);
+        List<String> nodes = Arrays.asList("127.0.0.1:" + firstServer.getPort(), "127.0.0.1:" + secondServer.getPort());
+        DistributedCacheDataHandler first = new DistributedCacheDataHandler(firstLocal, nodes.get(0), nodes, null);
+        DistributedCacheDataHandler second = new DistributedCacheDataHandler(secondLocal, nodes.get(1), nodes, null);
+        try {
+            List<PageHtml> firstPages = new ViewerHtmlHandler(firstConfig, new LocalInputDataHandler(firstConfig), first).getPages(guid, new HtmlOptions());
+            List<PageHtml> secondPages = new ViewerHtmlHandler(secondConfig, new LocalInputDataHandler(secondConfig), second).getPages(guid, new HtmlOptions());
+            assertEquals(firstPages.size(), secondPages.size());
+
+            // All cached files of the document live on its owner
+            int firstFiles = countFiles(new File(firstConfig.getCachePath()));
+            int secondFiles = countFiles(new File(secondConfig.getCachePath()));
+            assertTrue(firstFiles > 0 ^ secondFiles > 0);
+
+            // Owner goes down, the other node renders and caches the document locally
+            boolean firstOwns = firstFiles > 0;
+            (firstOwns ? firstServer : secondServer).close();
+            ViewerConfig survivorConfig = firstOwns ? secondConfig : firstConfig;
+            DistributedCacheDataHandler survivor = firstOwns ? second : first;
+            List<PageHtml> pages = new ViewerHtmlHandler(survivorConfig, new LocalInputDataHandler(survivorConfig), survivor).getPages(guid, new HtmlOptions());
+            assertEquals(firstPages.size(), pages.size());
+            assertTrue(countFiles(new File(survivorConfig.getCachePath())) > 0);
+        } finally {
+            first.close();
+            second.close();
+            firstServer.close();
+            secondServer.close();
+        }
+    }
+
+    @Test
+    public void testCachePeerServerRejectsClearOutsideOfCacheFolder() throws Exception {
+        Utilities.showTestHeader();
+        ViewerConfig config = createNodeConfig("node1");
+        File outside = new File(OUTPUT_PATH + File.separator + "outside" + File.separator + "page1.html");
+        outside.getParentFile().mkdirs();
+        assertTrue(outside.createNewFile());
+
+        CachePeerServer server = new CachePeerServer(new LocalCacheDataHandler(config), 0);
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        try {
+            DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+            output.writeByte(5); // CLEAR
+            output.writeUTF("/../outside");
+            output.flush();
+
+            DataInputStream input = new DataInputStream(socket.getInputStream());
+            assertEquals(2, input.readByte()); // ERROR
+            System.out.println("Clear rejected: " + input.readUTF());
+        } finally {
+            socket.close();
+            server.close();
+        }
+        assertTrue(outside.exists());
+    }
+
+    @Test
+    public void testAmazonS3UploadOfKnownLengthUsesSingleRequest() throws Exception {
+        Utilities.showTestHeader();
+        final List<Long> lengths = Collections.synchronizedList(new ArrayList<Long>());
+        AmazonS3Client client = new AmazonS3Client() {
+            @Override
+            public PutObjectResult putObject(PutObjectRequest request) {
+                lengths.add(request.getMetadata().getContentLength());
+                return new PutObjectResult();
+            }
+
+            @Override
+            public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+                throw new AmazonServiceException("Multipart upload is not expected");
+            }
+        };
+
+        // Length of a buffered stream is not known to the storage, it is passed by the caller
+        byte[] content = new byte[64 * 1024];
+        AmazonS3FileStorage storage = new AmazonS3FileStorage(client, "bucket");
+        try {
+            storage.saveFile("cache/document.docx/page1.html", new BufferedInputStream(new ByteArrayInputStream(content)), content.length);
+        } finally {
+            storage.dispose();
+        }
+        assertEquals(Collections.singletonList((long) content.length), lengths);
+    }
+
+    @Test
+    public void testAmazonS3MultipartUploadIsAbortedWhenPartFails() throws Exception {
+        Utilities.showTestHeader();
+        final AtomicInteger aborted = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        AmazonS3Client client = new AmazonS3Client() {
+            @Override
+            public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+                InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+                result.setUploadId("upload");
+                return result;
+            }
+
+            @Override
+            public UploadPartResult uploadPart(UploadPartRequest request) {
+                throw new AmazonServiceException("Part upload failed");
+            }
+
+            @Override
+            public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+                completed.incrementAndGet();
+                return new CompleteMultipartUploadResult();
+            }
+
+            @Override
+            public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+                aborted.incrementAndGet();
+            }
+        };
+
+        AmazonS3FileStorage storage = new AmazonS3FileStorage(client, "bucket");
+        try {
+            storage.saveFile("cache/document.docx/document.pdf", new ByteArrayInputStream(new byte[20 * 1024 * 1024]));
+            fail("Upload of failed part should fail");
+        } catch (AmazonClientException e) {
+            System.out.println("Upload failed: " + e.getMessage());
+        } finally {
+            storage.dispose();
+        }
+        assertEquals(1, aborted.get());
+        assertEquals(0, completed.get());
+    }
+
+    @Test
+    public void testAmazonS3DeleteDirectoryDeletesFilesAndDirectories() throws Exception {
+        Utilities.showTestHeader();
+        final Set<String> keys = Collections.synchronizedSet(new TreeSet<String>(Arrays.asList(
+                "cache/document.docx/html/resources/page1/style.css",
+                "cache/document.docx/html/resources/page1.manifest",
+                "cache/document.docx/html/pages/page1.html",
+                "cache/other.docx/html/pages/page1.html")));
+        AmazonS3Client client = new AmazonS3Client() {
+            @Override
+            public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+                ListObjectsV2Result result = new ListObjectsV2Result();
+                synchronized (keys) {
+                    for (String key : keys) {
+                        if (key.startsWith(request.getPrefix())) {
+                            S3ObjectSummary summary = new S3ObjectSummary();
+                            summary.setKey(key);
+                            result.getObjectSummaries().add(summary);
+                        }
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+                for (DeleteObjectsRequest.KeyVersion key : request.getKeys()) {
+                    keys.remove(key.getKey());
+                }
+                return new DeleteObjectsResult(new ArrayList<DeleteObjectsResult.DeletedObject>());
+            }
+        };
+
+        AmazonS3FileStorage storage = new AmazonS3FileStorage(client, "bucket");
+        try {
+            // A stale manifest is a single object deleted through the directory delete
+            storage.deleteDirectory("cache\\document.docx\\html\\resources\\page1.manifest");
+            assertTrue(!keys.contains("cache/document.docx/html/resources/page1.manifest"));
+            assertEquals(3, keys.size());
+
+            storage.deleteDirectory("cache\\document.docx");
+            assertEquals(Collections.singleton("cache/other.docx/html/pages/page1.html"), new TreeSet<String>(keys));
+        } finally {
+            storage.dispose();
+        }
+    }
+
+    @Test
+    public void testAmazonS3DeleteFilesDeletesExactKeysInBatches() throws Exception {
+        Utilities.showTestHeader();
+        final Set<String> keys = Collections.synchronizedSet(new TreeSet<String>());
+        final List<String> paths = new ArrayList<String>();
+        for (int n = 0; n < 1500; n++) {
+            keys.add("cache/document.docx/html/resources/page" + n + "/style.css");
+            paths.add("cache\\document.docx\\html\\resources\\page" + n + "\\style.css");
+        }
+        keys.add("cache/document.docx/html/pages/page1.html");
+        final AtomicInteger batches = new AtomicInteger();
+        AmazonS3Client client = new AmazonS3Client() {
+            @Override
+            public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+                throw new AmazonServiceException("Listing is not expected");
+            }
+
+            @Override
+            public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+                assertTrue(request.getKeys().size() <= 1000);
+                batches.incrementAndGet();
+                for (DeleteObjectsRequest.KeyVersion key : request.getKeys()) {
+                    keys.remove(key.getKey());
+                }
+                return new DeleteObjectsResult(new ArrayList<DeleteObjectsResult.DeletedObject>());
+            }
+        };
+
+        AmazonS3FileStorage storage = new AmazonS3FileStorage(client, "bucket");
+        try {
+            assertEquals(1500L, storage.deleteFiles(paths));
+        } finally {
+            storage.dispose();
+        }
+        assertEquals(2, batches.get());
+        assertEquals(Collections.singleton("cache/document.docx/html/pages/page1.html"), new TreeSet<String>(keys));
+    }
+
+    @Test
+    public void testCachePackAppendsAndReadsEntriesAfterReopen() throws Exception {
+        Utilities.showTestHeader();
+        File file = new File(OUTPUT_PATH + File.separator + "document.docx.pack");
+        CachePack pack = new CachePack(file);
+        try {
+            append(pack, "html/page_1.html", "first");
+            append(pack, "html/resources/page_1/style.css", "style");
+            assertTrue(pack.contains("html/page_1.html"));
+            assertEquals("first", read(pack, "html/page_1.html"));
+            assertEquals(Collections.singletonList("html/resources/page_1/style.css"), pack.getKeys("html/resources/"));
+        } finally {
+            pack.close();
+        }
+
+        CachePack reopened = new CachePack(file);
+        try {
+            assertEquals(2, reopened.getEntryCount());
+            assertEquals("style", read(reopened, "html/resources/page_1/style.css"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testCachePackTruncatesRecordCutOffByCrash() throws Exception {
+        Utilities.showTestHeader();
+        File file = new File(OUTPUT_PATH + File.separator + "document.docx.pack");
+        CachePack pack = new CachePack(file);
+        long firstRecordEnd;
+        try {
+            append(pack, "html/page_1.html", "first");
+            firstRecordEnd = pack.getSize();
+            append(pack, "html/page_2.html", "second");
+        } finally {
+            pack.close();
+        }
+
+        // Last record loses its tail, as if the process died while appending it
+        RandomAccessFile damaged = new RandomAccessFile(file, "rw");
+        try {
+            damaged.setLength(file.length() - 3);
+        } finally {
+            damaged.close();
+        }
+
+        CachePack reopened = new CachePack(file);
+        try {
+            assertTrue(reopened.contains("html/page_1.html"));
+            assertTrue(!reopened.contains("html/page_2.html"));
+            assertEquals(firstRecordEnd, file.length());
+
+            // Appends continue right after the last complete record
+            append(reopened, "html/page_2.html", "again");
+            assertEquals("again", read(reopened, "html/page_2.html"));
+        } finally {
+            reopened.close();
+        }
+        CachePack verified = new CachePack(file);
+        try {
+            assertEquals(2, verified.getEntryCount());
+            assertEquals("first", read(verified, "html/page_1.html"));
+        } finally {
+            verified.close();
+        }
+    }
+
+    @Test
+    public void testCachePackCompactsReplacedEntriesWhileStreamsRead() throws Exception {
+        Utilities.showTestHeader();
+        File file = new File(OUTPUT_PATH + File.separator + "document.docx.pack");
+        CachePack pack = new CachePack(file);
+        try {
+            append(pack, "html/page_1.html", "kept");
+            byte[] content = new byte[512 * 1024];
+            Arrays.fill(content, (byte) 1);
+            pack.append("image/page_1.png", new ByteArrayInputStream(content), content.length);
+            InputStream replaced = pack.openInputStream("image/page_1.png");
+            try {
+                // Replaced records exceed the compaction threshold and the live ones
+                for (int n = 2; n <= 9; n++) {
+                    Arrays.fill(content, (byte) n);
+                    pack.append("image/page_1.png", new ByteArrayInputStream(content), content.length);
+                }
+                assertTrue(pack.getSize() < 2 * content.length);
+
+                // Stream opened before compaction keeps reading the previous file
+                byte[] previous = IOUtils.toByteArray(replaced);
+                assertEquals(content.length, previous.length);
+                assertEquals(1, previous[previous.length - 1]);
+            } finally {
+                replaced.close();
+            }
+            assertEquals(9, readBytes(pack, "image/page_1.png")[0]);
+            assertEquals("kept", read(pack, "html/page_1.html"));
+        } finally {
+            pack.close();
+        }
+
+        CachePack reopened = new CachePack(file);
+        try {
+            assertEquals(2, reopened.getEntryCount());
+            assertEquals(file.length(), reopened.getSize());
+            assertEquals(9, readBytes(reopened, "image/page_1.png")[0]);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testCachePackClosedAsEldestKeepsOpenStreams() throws Exception {
+        Utilities.showTestHeader();
+        File file = new File(OUTPUT_PATH + File.separator + "document.docx.pack");
+        CachePack pack = new CachePack(file);
+        append(pack, "html/page_1.html", "first");
+        InputStream stream = pack.openInputStream("html/page_1.html");
+        pack.close();
+        assertTrue(pack.isClosed());
+        try {
+            assertEquals("first", new String(IOUtils.toByteArray(stream), "UTF-8"));
+        } finally {
+            stream.close();
+        }
+
+        try {
+            append(pack, "html/page_2.html", "second");
+            fail("Closed pack should not be appended");
+        } catch (IOException e) {
+            System.out.println("Append failed: " + e.getMessage());
+        }
+        // Writer holding the closed pack reopens it
+        CachePack reopened = new CachePack(file);
+        try {
+            append(reopened, "html/page_2.html", "second");
+            assertEquals("first", read(reopened, "html/page_1.html"));
+            assertEquals("second", read(reopened, "html/page_2.html"));
+        } finally {
+            reopened.close();
+        }
+    }
+
+    @Test
+    public void testPackedCacheRendersDocumentsConcurrentlyWithOneOpenPack() throws Exception {
+        Utilities.showTestHeader();
+        final ViewerConfig config = createNodeConfig("packed");
+        // Every document opened closes the pack another thread is appending to
+        final PackedCacheDataHandler cacheDataHandler = new PackedCacheDataHandler(config, new FlatCacheLayout(config), 1);
+        final List<String> guids = Arrays.asList("document.docx", "document-with-comment.docx", "document.pdf");
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final String guid : guids) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        new ViewerHtmlHandler(config, new LocalInputDataHandler(config), cacheDataHandler).getPages(guid, new HtmlOptions());
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.<Throwable>emptyList(), errors);
+
+        // All pages were appended, so second rendering is served from the packs
+        for (String guid : guids) {
+            List<PageHtml> pages = new ViewerHtmlHandler(config, new LocalInputDataHandler(config), cacheDataHandler).getPages(guid, new HtmlOptions());
+            assertTrue(pages.size() > 0);
+            assertTrue(new File(config.getCachePath() + File.separator + guid + ".pack").exists());
+        }
+        cacheDataHandler.clearCache();
+    }
+
+    @Test
+    public void testNegativeLookupFilterSkipsStorageOnlyForSoleWriter() throws Exception {
+        Utilities.showTestHeader();
+        ViewerConfig config = new ViewerConfig();
+        config.setStoragePath(STORAGE_PATH);
+        // Windows style cache path, listed files come back with normalized separators and are still found
+        config.setCachePath(OUTPUT_PATH + "\\filtered");
+        final CountingFileStorage storage = new CountingFileStorage();
+        final CacheDataHandler cacheDataHandler = new CacheDataHandler(config, storage);
+
+        // Cached before start, e.g. by a previous run
+        storage.put(cacheDataHandler.getFilePath(createPage(1)));
+        // Saved while the filter is being built
+        storage.onList = new Runnable() {
+            @Override
+            public void run() {
+                save(cacheDataHandler, createPage(2));
+            }
+        };
+        cacheDataHandler.rebuildNegativeLookupFilter(1000, 0.01);
+
+        // Not declared sole writer, files of other writers are found in the storage
+        storage.put(cacheDataHandler.getFilePath(createPage(3)));
+        assertTrue(cacheDataHandler.exists(createPage(3)));
+        int lookups = storage.lookups.get();
+        assertTrue(!cacheDataHandler.exists(createPage(4)));
+        assertEquals(lookups + 1, storage.lookups.get());
+
+        cacheDataHandler.setSoleWriter(true);
+        assertTrue(cacheDataHandler.exists(createPage(1)));
+        assertTrue(cacheDataHandler.exists(createPage(2)));
+        save(cacheDataHandler, createPage(5));
+        assertTrue(cacheDataHandler.exists(createPage(5)));
+
+        // Missing page is answered by the filter alone
+        lookups = storage.lookups.get();
+        assertTrue(!cacheDataHandler.exists(createPage(4)));
+        assertEquals(lookups, storage.lookups.get());
+    }
+
+    @Test
+    public void testOffHeapPageCacheStreamFailsWhenSlabIsReused() throws Exception {
+        Utilities.showTestHeader();
+        OffHeapPageCache cache = new OffHeapPageCache(2, 1024, 1024);
+        try {
+            assertTrue(cache.put("page1", createContent(600, 1)));
+            InputStream stream = cache.getInputStream("page1");
+            byte[] buffer = new byte[100];
+            assertEquals(100, stream.read(buffer));
+            assertEquals(1, buffer[0]);
+
+            // Second put fills the other slab, third one reuses the slab of the first page
+            assertTrue(cache.put("page2", createContent(600, 2)));
+            assertTrue(cache.contains("page1"));
+            assertTrue(cache.put("page3", createContent(600, 3)));
+            assertTrue(!cache.contains("page1"));
+            assertEquals(null, cache.getInputStream("page1"));
+            try {
+                stream.read(buffer);
+                fail("Stream over reused slab should fail");
+            } catch (IOException e) {
+                System.out.println("Read failed: " + e.getMessage());
+            }
+            assertEquals(3, readFully(cache.getInputStream("page3"))[599]);
+        } finally {
+            cache.close();
+        }
+    }
+
+    @Test
+    public void testMemoryTierStreamContinuesFromStorageWhenSlabIsReused() throws Exception {
+        Utilities.showTestHeader();
+        ViewerConfig config = createNodeConfig("memory");
+        OffHeapPageCache memoryCache = new OffHeapPageCache(2, 1024, 1024);
+        CacheDataHandler cacheDataHandler = new CacheDataHandler(config, new CountingFileStorage(), memoryCache);
+        try {
+            byte[] content = new byte[600];
+            for (int n = 0; n < content.length; n++) {
+                content[n] = (byte) n;
+            }
+            save(cacheDataHandler, createPage(1), content);
+            assertTrue(memoryCache.contains(cacheDataHandler.getFilePath(createPage(1))));
+
+            InputStream stream = cacheDataHandler.getInputStream(createPage(1));
+            byte[] head = new byte[100];
+            assertEquals(100, stream.read(head));
+
+            // Pages saved meanwhile reuse the slab the stream reads from
+            save(cacheDataHandler, createPage(2), createContent(600, 2));
+            save(cacheDataHandler, createPage(3), createContent(600, 3));
+            assertTrue(!memoryCache.contains(cacheDataHandler.getFilePath(createPage(1))));
+
+            byte[] tail = readFully(stream);
+            assertEquals(content.length - head.length, tail.length);
+            for (int n = 0; n < tail.length; n++) {
+                assertEquals(content[head.length + n], tail[n]);
+            }
+        } finally {
+            memoryCache.close();
+        }
+    }
+
+    @Test
+    public void testAmazonS3ListingFollowsTruncatedPages() throws Exception {
+        Utilities.showTestHeader();
+        final Set<String> keys = Collections.synchronizedSet(new TreeSet<String>());
+        for (int n = 0; n < 7; n++) {
+            keys.add("cache/document.docx/page" + n + ".html");
+            keys.add("cache/other.docx/page" + n + ".html");
+        }
+        final AtomicInteger listings = new AtomicInteger();
+        AmazonS3Client client = new AmazonS3Client() {
+            @Override
+            public ListObjectsV2Result listObjectsV2(ListObjectsV2Request request) {
+                listings.incrementAndGet();
+                return listPage(keys, request, 3);
+            }
+
+            @Override
+            public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+                for (DeleteObjectsRequest.KeyVersion key : request.getKeys()) {
+                    keys.remove(key.getKey());
+                }
+                return new DeleteObjectsResult(new ArrayList<DeleteObjectsResult.DeletedObject>());
+            }
+        };
+
+        AmazonS3FileStorage storage = new AmazonS3FileStorage(client, "bucket");
+        try {
+            // Empty first page and two more pages of 3 keys and the rest
+            assertEquals(7, storage.getFilesInfo("cache\\document.docx").size());
+            assertEquals(4, listings.get());
+
+            Set<String> listed = new TreeSet<String>();
+            Iterator<IFileInfo> iterator = storage.iterateFilesInfo(Arrays.asList("cache\\document.docx", "cache\\other.docx"));
+            while (iterator.hasNext()) {
+                listed.add(iterator.next().getPath());
+            }
+            assertEquals(keys, listed);
+
+            storage.deleteDirectory("cache\\document.docx");
+            assertEquals(7, keys.size());
+            for (String key : keys) {
+                assertTrue(key.startsWith("cache/other.docx/"));
+            }
+        } finally {
+            storage.dispose();
+        }
+    }
+
+    private static ViewerConfig createNodeConfig(String node) {
+        ViewerConfig config = new ViewerConfig();
+        config.setStoragePath(STORAGE_PATH);
+        config.setCachePath(OUTPUT_PATH + File.separator + node);
+        config.setEnableCaching(true);
+        return config;
+    }
+
+    private static CachedPageDescription createPage(int pageNumber) {
+        CachedPageDescription page = new CachedPageDescription("document.docx");
+        page.setPageNumber(pageNumber);
+        page.setOutputExtension(".html");
+        return page;
+    }
+
+    private static void save(CacheDataHandler cacheDataHandler, CachedPageDescription page) {
+        save(cacheDataHandler, page, "<html/>".getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static void save(CacheDataHandler cacheDataHandler, CachedPageDescription page, byte[] content) {
+        OutputStream output = cacheDataHandler.getOutputSaveStream(page);
+        try {
+            try {
+                output.write(content);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] createContent(int length, int value) {
+        byte[] content = new byte[length];
+        Arrays.fill(content, (byte) value);
+        return content;
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        try {
+            return IOUtils.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Lists keys under the request prefix in pages, the first page of a listing is empty but truncated as S3 may return it
+     */
+    private static ListObjectsV2Result listPage(Set<String> keys, ListObjectsV2Request request, int pageSize) {
+        List<String> matching = new ArrayList<String>();
+        synchronized (keys) {
+            for (String key : keys) {
+                if (key.startsWith(request.getPrefix())) {
+                    matching.add(key);
+                }
+            }
+        }
+
+        ListObjectsV2Result result = new ListObjectsV2Result();
+        final String token = request.getContinuationToken();
+        final int start = token == null ? 0 : Integer.parseInt(token);
+        final int end = token == null ? 0 : Math.min(matching.size(), start + pageSize);
+        for (String key : matching.subList(start, end)) {
+            S3ObjectSummary summary = new S3ObjectSummary();
+            summary.setKey(key);
+            result.getObjectSummaries().add(summary);
+        }
+        result.setTruncated(end < matching.size());
+        result.setNextContinuationToken(end < matching.size() ? String.valueOf(end) : null);
+        return result;
+    }
+
+    private static void append(CachePack pack, String key, String content) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        pack.append(key, new ByteArrayInputStream(bytes), bytes.length);
+    }
+
+    private static String read(CachePack pack, String key) throws IOException {
+        return new String(readBytes(pack, key), "UTF-8");
+    }
+
+    private static byte[] readBytes(CachePack pack, String key) throws IOException {
+        InputStream stream = pack.openInputStream(key);
+        try {
+            return IOUtils.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static int countFiles(File folder) {
+        int count = 0;
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                count += file.isDirectory() ? countFiles(file) : 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * In-memory storage listing all files under a folder recursively and counting file lookups
+     */
+    private static class CountingFileStorage implements IFileStorage {
+        private final Map<String, byte[]> _files = new ConcurrentHashMap<String, byte[]>();
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile Runnable onList;
+
+        void put(String path) {
+            _files.put(path, new byte[0]);
+        }
+
+        public boolean fileExists(String path) {
+            lookups.incrementAndGet();
+            return _files.containsKey(path);
+        }
+
+        public InputStream getFile(String path) {
+            return new ByteArrayInputStream(_files.get(path));
+        }
+
+        public void saveFile(String path, InputStream content) {
+            try {
+                _files.put(path, IOUtils.toByteArray(content));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public void deleteDirectory(String path) {
+            _files.remove(path);
+        }
+
+        public IFileInfo getFileInfo(String path) {
+            IFileInfo info = new FileInfo();
+            info.setPath(path);
+            return info;
+        }
+
+        public List<IFileInfo> getFilesInfo(String path) {
+            final Runnable listener = onList;
+            onList = null;
+            if (listener != null) {
+                listener.run();
+            }
+
+            List<IFileInfo> result = new ArrayList<IFileInfo>();
+            final String prefix = path.replace('\\', '/') + "/";
+            for (String file : _files.keySet()) {
+                if (file.replace('\\', '/').startsWith(prefix)) {
+                    IFileInfo info = new FileInfo();
+                    info.setPath(file);
+                    result.add(info);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -13,6 +13,7 @@ import com.groupdocs.viewer.domain.options.DocumentInfoOptions;
 import com.groupdocs.viewer.handler.ViewerHtmlHandler;
 import com.groupdocs.viewer.handler.ViewerImageHandler;
 import com.groupdocs.viewer.sample.Utilities;
+import com.groupdocs.viewer.sample.handler.CoalescingViewerHandler;
 import com.groupdocs.viewer.utils.CultureInfo;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -22,11 +23,15 @@ import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.groupdocs.viewer.common.ViewerUtils.closeStreams;
 import static com.groupdocs.viewer.sample.TestRunner.*;
@@ -88,6 +93,60 @@ public class CommonIssuesTests {
         latch.await();
     }
 
+    @Test
+    public void testVIEWERJAVA1325Coalesced() throws Exception {
+        Utilities.showTestHeader();
+        // Setup GroupDocs.Viewer config
+        ViewerConfig config = new ViewerConfig();
+        config.setStoragePath(STORAGE_PATH);
+        int pageNumber = 1, pagesCount = 1;
+        final HtmlOptions htmlOptions = new HtmlOptions();
+        htmlOptions.setCountPagesToRender(pagesCount);
+        htmlOptions.setPageNumber(pageNumber);
+        htmlOptions.setPageNumbersToRender(Arrays.asList(pageNumber));
+        // Concurrent requests for the same pages share one render, which is held until all threads asked for the pages
+        final String guids[] = new String[]{"candy.pdf", "candy.pdf", "candy.pdf"};
+        final CountDownLatch started = new CountDownLatch(guids.length);
+        final AtomicInteger renders = new AtomicInteger();
+        final CoalescingViewerHandler handler = new CoalescingViewerHandler(new ViewerHtmlHandler(config) {
+            @Override
+            public List<PageHtml> getPages(String guid, HtmlOptions options) throws Exception {
+                renders.incrementAndGet();
+                started.await(30, TimeUnit.SECONDS);
+                Thread.sleep(500);
+                return super.getPages(guid, options);
+            }
+        }, null);
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        final CountDownLatch latch = new CountDownLatch(guids.length);
+        for (final String guid : guids) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        started.countDown();
+                        final List<PageHtml> pages = handler.getPages(guid, htmlOptions);
+                        assertEquals("Page count incorrect", 1, pages.size());
+                        for (PageHtml page : pages) {
+                            assertEquals("Page number incorrect", 1, page.getPageNumber());
+                            assertNotNull("Html content is null", page.getHtmlContent());
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        latch.await();
+        for (Throwable error : errors) {
+            error.printStackTrace(System.err);
+        }
+        assertTrue("Threads failed: " + errors, errors.isEmpty());
+        assertEquals("Pages were rendered more than once", 1, renders.get());
+    }
+
     @Test
     public void testVIEWERJAVA1358() throws Exception {
         String guid = "document-input.xlsx";